@@ -0,0 +1,72 @@
+package lgca.bench;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+
+/**
+ * Method handles to the engine. The engine classes live in the default package, which Java code in a named
+ * package can't refer to, and JMH refuses benchmarks in the default package, so the benchmarks go through
+ * these handles. They are static final, so the JIT inlines the calls like direct ones.
+ */
+final class Engine {
+    static final MethodHandle NEW_LGCA;      // (int width, int height, long seed) -> Object
+    static final MethodHandle INITIALIZE;    // (Object lgca)
+    static final MethodHandle STEP;          // (Object lgca)
+    static final MethodHandle COLLISION;     // (Object lgca)
+    static final MethodHandle PROPAGATE;     // (Object lgca)
+    static final MethodHandle SETUP;         // (Object lgca)
+    static final MethodHandle GET_CELLS;     // (Object lgca) -> byte[]
+    static final MethodHandle SET_VECTORIZED; // (Object lgca, boolean)
+    static final MethodHandle RESTORE;       // (Object lgca, int count, byte[] cells), package-private in LGCA
+    static final MethodHandle ACTIVE_TILES;  // (Object lgca) -> int
+    static final MethodHandle TILE_COUNT;    // (Object lgca) -> int
+    static final MethodHandle NEW_FIELD;     // (int width, int height, int blockSize, int window) -> Object
+    static final MethodHandle ACCUMULATE;    // (Object field, byte[] cells)
+
+    static final byte SOLID = 1 << 6;
+
+    static {
+        try {
+            MethodHandles.Lookup lookup = MethodHandles.publicLookup();
+            Class<?> lgca = Class.forName("LGCA");
+            Class<?> field = Class.forName("CoarseField");
+
+            NEW_LGCA = lookup.findConstructor(lgca, MethodType.methodType(void.class, int.class, int.class, long.class))
+                    .asType(MethodType.methodType(Object.class, int.class, int.class, long.class));
+            INITIALIZE = action(lookup, lgca, "initialize");
+            STEP = action(lookup, lgca, "step");
+            COLLISION = action(lookup, lgca, "collision");
+            PROPAGATE = action(lookup, lgca, "propagate");
+            SETUP = action(lookup, lgca, "setup");
+            GET_CELLS = lookup.findVirtual(lgca, "getCells", MethodType.methodType(byte[].class))
+                    .asType(MethodType.methodType(byte[].class, Object.class));
+            SET_VECTORIZED = lookup.findVirtual(lgca, "setVectorized", MethodType.methodType(void.class, boolean.class))
+                    .asType(MethodType.methodType(void.class, Object.class, boolean.class));
+            // the default package is in the unnamed module, which is open, so a private lookup reaches restore()
+            RESTORE = MethodHandles.privateLookupIn(lgca, MethodHandles.lookup())
+                    .findVirtual(lgca, "restore", MethodType.methodType(void.class, int.class, byte[].class))
+                    .asType(MethodType.methodType(void.class, Object.class, int.class, byte[].class));
+            ACTIVE_TILES = lookup.findVirtual(lgca, "getActiveTiles", MethodType.methodType(int.class))
+                    .asType(MethodType.methodType(int.class, Object.class));
+            TILE_COUNT = lookup.findVirtual(lgca, "getTileCount", MethodType.methodType(int.class))
+                    .asType(MethodType.methodType(int.class, Object.class));
+
+            NEW_FIELD = lookup.findConstructor(field, MethodType.methodType(void.class, int.class, int.class, int.class, int.class))
+                    .asType(MethodType.methodType(Object.class, int.class, int.class, int.class, int.class));
+            ACCUMULATE = lookup.findVirtual(field, "accumulate", MethodType.methodType(void.class, byte[].class))
+                    .asType(MethodType.methodType(void.class, Object.class, byte[].class));
+        }
+        catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    private static MethodHandle action(MethodHandles.Lookup lookup, Class<?> c, String name) throws ReflectiveOperationException {
+        return lookup.findVirtual(c, name, MethodType.methodType(void.class))
+                .asType(MethodType.methodType(void.class, Object.class));
+    }
+
+    private Engine() {
+    }
+}
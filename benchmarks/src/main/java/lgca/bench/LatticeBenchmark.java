@@ -0,0 +1,104 @@
+package lgca.bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The LGCA kernels on lattices from cache resident (256x128, 32 KB) to far past L3 (10000x6000, 60 MB per buffer),
+ * with the fluid cells filled at a given probability per direction. Scores are ns per call; RunBenchmarks
+ * turns them into ns per site update.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx4g", "--add-modules=jdk.incubator.vector"})
+public class LatticeBenchmark {
+
+    @Param({"256x128", "1000x600", "4000x2400", "10000x6000"})
+    public String size;
+
+    /** Chance of a particle in each direction of every fluid cell. */
+    @Param({"0.1", "0.3", "0.6"})
+    public double density;
+
+    /** Stream with the Vector API kernel (if the JVM has it) or the scalar loop. */
+    @Param({"true", "false"})
+    public boolean vector;
+
+    private Object model, field;
+    private byte[] cells;
+
+    @Setup(Level.Iteration)
+    public void setUp() throws Throwable {
+        String[] wh = size.split("x");
+        int width = Integer.parseInt(wh[0]), height = Integer.parseInt(wh[1]);
+
+        model = Engine.NEW_LGCA.invokeExact(width, height, 1L);
+        Engine.INITIALIZE.invokeExact(model);
+        Engine.SET_VECTORIZED.invokeExact(model, vector);
+        field = Engine.NEW_FIELD.invokeExact(width, height, 16, 1);
+
+        // refill every iteration, stepping drains the lattice through the outflow
+        byte[] grid = ((byte[]) Engine.GET_CELLS.invokeExact(model)).clone();
+        Random rand = new Random(42);
+        for (int i = 0; i < grid.length; i++) {
+            if ((grid[i] & Engine.SOLID) != 0)
+                continue;
+            int particles = 0;
+            for (int d = 0; d < 6; d++) {
+                if (rand.nextDouble() < density)
+                    particles |= 1 << d;
+            }
+            grid[i] = (byte) ((grid[i] & ~0x3F) | particles);
+        }
+        // through restore(), so the tile activity is worked out again; written straight into getCells() the
+        // tiles would keep the activity of the initialized lattice and most of them would be skipped
+        Engine.RESTORE.invokeExact(model, 0, grid);
+        int active = (int) Engine.ACTIVE_TILES.invokeExact(model), tiles = (int) Engine.TILE_COUNT.invokeExact(model);
+        if (active != tiles)
+            throw new IllegalStateException(active + " of " + tiles + " tiles active after the refill");
+        cells = (byte[]) Engine.GET_CELLS.invokeExact(model);
+    }
+
+    @Benchmark
+    public void collision() throws Throwable {
+        Engine.COLLISION.invokeExact(model);
+    }
+
+    @Benchmark
+    public void propagate() throws Throwable {
+        Engine.PROPAGATE.invokeExact(model);
+    }
+
+    @Benchmark
+    public void step() throws Throwable {
+        Engine.STEP.invokeExact(model);
+    }
+
+    /** Inflow generation, one call fills column 1. */
+    @Benchmark
+    public void setup() throws Throwable {
+        Engine.SETUP.invokeExact(model);
+    }
+
+    /** 16x16 block sums of density and momentum, what VisualizerAVG's block modes paint. */
+    @Benchmark
+    public void blockAverage() throws Throwable {
+        Engine.ACCUMULATE.invokeExact(field, cells);
+    }
+}
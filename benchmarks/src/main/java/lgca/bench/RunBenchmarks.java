@@ -0,0 +1,41 @@
+package lgca.bench;
+
+import org.openjdk.jmh.results.RunResult;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.Collection;
+
+/**
+ * Runs the benchmarks and adds a table in ns per site update (ns per inflow cell for setup).
+ * Takes the usual JMH command line, e.g. "step -p size=1000x600" to run a subset.
+ */
+public class RunBenchmarks {
+    public static void main(String[] args) throws Exception {
+        CommandLineOptions cmd = new CommandLineOptions(args);
+        OptionsBuilder options = new OptionsBuilder();
+        options.parent(cmd);
+        if (cmd.getIncludes().isEmpty())
+            options.include(LatticeBenchmark.class.getSimpleName());
+
+        Collection<RunResult> results = new Runner(options.build()).run();
+
+        System.out.println();
+        System.out.printf("%-14s %-11s %8s %14s %12s%n", "benchmark", "size", "density", "ns/op", "ns/site");
+        for (RunResult r : results) {
+            String name = r.getParams().getBenchmark();
+            name = name.substring(name.lastIndexOf('.') + 1);
+            String size = r.getParams().getParam("size");
+            String density = r.getParams().getParam("density");
+            if (size == null)
+                continue;
+
+            String[] wh = size.split("x");
+            long width = Long.parseLong(wh[0]), height = Long.parseLong(wh[1]);
+            long sites = name.equals("setup") ? height - 2 : width * height;
+            double ns = r.getPrimaryResult().getScore();
+            System.out.printf("%-14s %-11s %8s %14.1f %12.3f%n", name, size, density, ns, ns / sites);
+        }
+    }
+}
@@ -0,0 +1,62 @@
+import jdk.incubator.vector.ByteVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * StreamKernel on the Vector API (jdk.incubator.vector): a whole vector of cells per operation. The neighbors of
+ * consecutive cells are consecutive too, so each direction is one unaligned load at the neighbor offset. The FHP
+ * collision is done per lane with compares and blends instead of LGCA.COLLISION lookups, with the same outcomes.
+ *
+ * Needs --add-modules jdk.incubator.vector at compile and run time; LGCA loads it by name and keeps its scalar
+ * loop if that fails.
+ */
+class VectorStreamKernel implements StreamKernel {
+    // at most 64 lanes, the RAND bits come from one long
+    private static final VectorSpecies<Byte> S = ByteVector.SPECIES_PREFERRED.length() <= 64
+            ? ByteVector.SPECIES_PREFERRED : ByteVector.SPECIES_512;
+
+    public VectorStreamKernel() {
+        if (S.length() > 64 || 64 % S.length() != 0)
+            throw new UnsupportedOperationException("No usable byte vector length: " + S.length());
+    }
+
+    public int streamOpen(byte[] src, byte[] dst, int i, int n, int[] off, long bits, boolean collide) {
+        ByteVector any = ByteVector.zero(S);
+        for (int k = 0; k < n; k += S.length()) {
+            int j = i + k;
+            ByteVector in = cell(src, j + off[0], collide).and(LGCA.WEST)
+                    .or(cell(src, j + off[1], collide).and(LGCA.SOUTHWEST))
+                    .or(cell(src, j + off[2], collide).and(LGCA.SOUTHEAST))
+                    .or(cell(src, j + off[3], collide).and(LGCA.EAST))
+                    .or(cell(src, j + off[4], collide).and(LGCA.NORTHEAST))
+                    .or(cell(src, j + off[5], collide).and(LGCA.NORTHWEST));
+            any = any.or(in);
+            VectorMask<Byte> rand = VectorMask.fromLong(S, bits >>> k);
+            in.lanewise(VectorOperators.OR, LGCA.RAND, rand).intoArray(dst, j);
+        }
+        return any.reduceLanes(VectorOperators.OR);
+    }
+
+    private static ByteVector cell(byte[] src, int j, boolean collide) {
+        ByteVector v = ByteVector.fromArray(S, src, j);
+        return collide ? collide(v) : v;
+    }
+
+    /** LGCA.COLLISION for every lane. */
+    static ByteVector collide(ByteVector v) {
+        ByteVector q = v.and((byte) (LGCA.SOLID | LGCA.PARTICLE_BITS)); // walls never match a pattern
+        ByteVector rnd = v.and(LGCA.RAND);
+        VectorMask<Byte> left = v.lt((byte) 0); // RAND set: rotate counterclockwise
+
+        ByteVector ew = ByteVector.broadcast(S, LGCA.NORTHWEST | LGCA.SOUTHEAST).blend(LGCA.NORTHEAST | LGCA.SOUTHWEST, left);
+        ByteVector nesw = ByteVector.broadcast(S, LGCA.EAST | LGCA.WEST).blend(LGCA.NORTHWEST | LGCA.SOUTHEAST, left);
+        ByteVector nwse = ByteVector.broadcast(S, LGCA.NORTHEAST | LGCA.SOUTHWEST).blend(LGCA.EAST | LGCA.WEST, left);
+
+        return v.blend(rnd.or(ew), q.eq(LGCA.oppEW))
+                .blend(rnd.or(nesw), q.eq(LGCA.oppNESW))
+                .blend(rnd.or(nwse), q.eq(LGCA.oppNWSE))
+                .blend(rnd.or(LGCA.tri2), q.eq(LGCA.tri1))
+                .blend(rnd.or(LGCA.tri1), q.eq(LGCA.tri2));
+    }
+}
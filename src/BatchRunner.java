@@ -0,0 +1,351 @@
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.function.Supplier;
+import javax.management.JMException;
+
+/**
+ * Headless entry point: runs a lattice as fast as the engine goes, without a display.
+ * Prints steps per second and MLUPS (million lattice updates per second) every report interval and can
+ * write a density snapshot (binary PGM image, darker = more particles, walls black) every snapshot interval,
+ * or record what a visualizer would show as an image sequence (see FrameRecorder).
+ *
+ * Usage: java BatchRunner [--option=value ...]
+ *   --width=1000 --height=600        lattice size
+ *   --wall=300,300,400               wall column, first row, last row (exclusive); --wall=none for no wall
+ *   --obstacles=file                 image of more walls (dark = solid), stretched over the lattice, see Obstacles
+ *   --inflow=0.8,0.5,0.2,0.1,0.2,0.5 inflow probability per direction, EAST to SOUTHEAST
+ *   --edges=inflow,outflow,wall,wall left, right, top and bottom Boundary (byte engine for anything else)
+ *   --steps=2000                     number of steps
+ *   --seed=1                         random seed
+ *   --engine=byte|bitplane|offheap   LGCA, BitPlaneLGCA or OffHeapLGCA
+ *   --threads=1                      threads for the byte and offheap engines
+ *   --store=file                     offheap engine: keep the cells in this file instead of direct memory
+ *   --band=rows                      offheap engine: rows per band (see OffHeapLGCA.setBandRows)
+ *   --report=100                     steps between progress lines
+ *   --snapshot=0                     steps between snapshots, 0 = none
+ *   --out=snapshots                  directory for the snapshots
+ *   --resume=file                    start from a Checkpoint instead (byte engine, size/wall/inflow/edges/seed are taken from it)
+ *   --checkpoint=file                write a Checkpoint at the end (byte engine)
+ *   --series=file                    stream block-averaged density/velocity to a FieldSeriesWriter file (byte engine);
+ *                                    replaced, or continued with --resume
+ *   --series-every=10                steps between frames of the series
+ *   --block=16 --window=10           block size and number of steps averaged for the series
+ *   --time-block=1                   steps per sweep over the lattice (byte engine, see LGCA.setTimeBlock; offheap default 16)
+ *   --vector=true                    stream with the Vector API kernel when the JVM has it (byte engine, see LGCA.setVectorized)
+ *   --record=dir                     render frames off screen into dir, step_0000010.png, ... (see FrameRecorder)
+ *   --record-every=10                steps between frames
+ *   --record-view=density            density (Visualizer), or cell, block or eddy (VisualizerAVG)
+ *   --record-scale=1 --record-block=16  pixels per cell, and block size of the block and eddy views
+ *   --record-format=png              png, or ppm (raw RGB, bigger but much cheaper to write)
+ *   --encoders=2 --record-queue=8    encoder threads, and frames waiting for them before frames are dropped
+ *   --metrics=0                      steps between LGCAMetrics samples, 0 = off (byte engine); also logs every 10 s and registers with JMX
+ */
+public class BatchRunner {
+    public static void main(String[] args) throws IOException {
+        int width = 1000, height = 600;
+        int[] wall = {300, 300, 400};
+        double[] inflow = {0.8, 0.5, 0.2, 0.1, 0.2, 0.5};
+        Boundary[] edges = null;
+        int steps = 2000, threads = 1, report = 100, snapshot = 0;
+        long seed = 1;
+        String engine = "byte";
+        Path out = Paths.get("snapshots");
+        Path resume = null, checkpoint = null, series = null, obstacles = null;
+        boolean vector = true;
+        Path store = null;
+        int band = 0;
+        int seriesEvery = 10, block = 16, window = 10, metricsEvery = 0, timeBlock = 1;
+        Path record = null;
+        String recordView = "density";
+        FrameRecorder.Format recordFormat = FrameRecorder.Format.PNG;
+        int recordEvery = 10, recordScale = 1, recordBlock = 16, encoders = 2, recordQueue = 8;
+
+        for (String arg : args) {
+            int eq = arg.indexOf('=');
+            if (!arg.startsWith("--") || eq < 0)
+                throw new IllegalArgumentException("Expected --option=value, got " + arg);
+            String key = arg.substring(2, eq), value = arg.substring(eq + 1);
+
+            switch (key) {
+                case "width":    width = Integer.parseInt(value); break;
+                case "height":   height = Integer.parseInt(value); break;
+                case "wall":     wall = value.equals("none") ? new int[]{-1, 0, 0} : parseInts(value, 3); break;
+                case "inflow":   inflow = parseDoubles(value, 6); break;
+                case "obstacles": obstacles = Paths.get(value); break;
+                case "edges":    edges = parseBoundaries(value); break;
+                case "steps":    steps = Integer.parseInt(value); break;
+                case "seed":     seed = Long.parseLong(value); break;
+                case "engine":   engine = value; break;
+                case "threads":  threads = Integer.parseInt(value); break;
+                case "report":   report = Integer.parseInt(value); break;
+                case "snapshot": snapshot = Integer.parseInt(value); break;
+                case "out":      out = Paths.get(value); break;
+                case "resume":   resume = Paths.get(value); break;
+                case "checkpoint": checkpoint = Paths.get(value); break;
+                case "series":   series = Paths.get(value); break;
+                case "series-every": seriesEvery = Integer.parseInt(value); break;
+                case "block":    block = Integer.parseInt(value); break;
+                case "window":   window = Integer.parseInt(value); break;
+                case "metrics":  metricsEvery = Integer.parseInt(value); break;
+                case "time-block": timeBlock = Integer.parseInt(value); break;
+                case "vector":   vector = Boolean.parseBoolean(value); break;
+                case "store":    store = Paths.get(value); break;
+                case "band":     band = Integer.parseInt(value); break;
+                case "record":   record = Paths.get(value); break;
+                case "record-every": recordEvery = Integer.parseInt(value); break;
+                case "record-view": recordView = value; break;
+                case "record-scale": recordScale = Integer.parseInt(value); break;
+                case "record-block": recordBlock = Integer.parseInt(value); break;
+                case "record-format": recordFormat = FrameRecorder.Format.valueOf(value.toUpperCase()); break;
+                case "encoders": encoders = Integer.parseInt(value); break;
+                case "record-queue": recordQueue = Integer.parseInt(value); break;
+                default: throw new IllegalArgumentException("Unknown option --" + key);
+            }
+        }
+
+        Lattice model;
+        if (resume != null) {
+            if (!engine.equals("byte"))
+                throw new IllegalArgumentException("Checkpoints need the byte engine");
+            if (edges != null)
+                throw new IllegalArgumentException("--edges can't be combined with --resume, the checkpoint has its own");
+            LGCA lgca = Checkpoint.load(resume);
+            lgca.setThreads(threads);
+            model = lgca;
+            width = lgca.getWidth();
+            height = lgca.getHeight();
+            seed = lgca.getSeed();
+        }
+        else if (engine.equals("bitplane")) {
+            if (threads != 1)
+                throw new IllegalArgumentException("--threads needs the byte or offheap engine, bitplane runs on one thread");
+            model = new BitPlaneLGCA(width, height, seed);
+        }
+        else if (engine.equals("byte")) {
+            LGCA lgca = new LGCA(width, height, seed);
+            lgca.setThreads(threads);
+            model = lgca;
+        }
+        else if (engine.equals("offheap")) {
+            OffHeapLGCA offHeap = new OffHeapLGCA(width, height, seed);
+            offHeap.setThreads(threads);
+            offHeap.setFile(store);
+            if (band > 0)
+                offHeap.setBandRows(band);
+            if (timeBlock > 1)
+                offHeap.setTimeBlock(timeBlock);
+            offHeap.setVectorized(vector);
+            if (edges != null)
+                offHeap.setBoundaries(edges[0], edges[1], edges[2], edges[3]);
+            model = offHeap;
+        }
+        else {
+            throw new IllegalArgumentException("Unknown engine " + engine);
+        }
+        if (edges != null && !(model instanceof OffHeapLGCA)) {
+            if (!(model instanceof LGCA))
+                throw new IllegalArgumentException("Boundaries need the byte engine");
+            ((LGCA) model).setBoundaries(edges[0], edges[1], edges[2], edges[3]);
+        }
+        if (resume == null) {
+            model.setWallSegment(wall[0], wall[1], wall[2]);
+            if (obstacles != null)
+                model.setObstacles(Obstacles.load(obstacles, width, height));
+            model.setInflowWeights(inflow);
+            model.initialize();
+        }
+        if (checkpoint != null && !(model instanceof LGCA))
+            throw new IllegalArgumentException("Checkpoints need the byte engine");
+        if (timeBlock > 1 && !(model instanceof OffHeapLGCA)) {
+            if (!(model instanceof LGCA))
+                throw new IllegalArgumentException("Time blocking needs the byte engine");
+            ((LGCA) model).setTimeBlock(timeBlock);
+        }
+        if (model instanceof LGCA) {
+            ((LGCA) model).setVectorized(vector);
+            System.out.println("Stream kernel: " + (((LGCA) model).isVectorized() ? "vector" : "scalar"));
+        }
+
+        if (snapshot > 0)
+            Files.createDirectories(out);
+
+        FieldSeriesWriter seriesWriter = null;
+        CoarseField field = null;
+        if (series != null) {
+            if (!(model instanceof LGCA))
+                throw new IllegalArgumentException("The field series needs the byte engine");
+            field = new CoarseField(width, height, block, window);
+            ((LGCA) model).setCoarseField(field);
+            // a resumed run carries on with the series of the run it resumes, anything else starts it over
+            seriesWriter = new FieldSeriesWriter(series, field, 64, resume != null);
+            if (seriesWriter.getLastStep() > model.getCount())
+                throw new IllegalArgumentException(series + " already goes on to step " + seriesWriter.getLastStep()
+                        + ", past step " + model.getCount() + " of " + resume);
+        }
+
+        FrameRecorder recorder = null;
+        if (record != null) {
+            // no display needed (or wanted) for painting into images
+            if (System.getProperty("java.awt.headless") == null)
+                System.setProperty("java.awt.headless", "true");
+            recorder = new FrameRecorder(record, recordFormat, model, painter(model, recordView, recordScale, recordBlock),
+                    encoders, recordQueue);
+        }
+
+        LGCAMetrics metrics = null;
+        if (metricsEvery > 0) {
+            if (!(model instanceof LGCA))
+                throw new IllegalArgumentException("Metrics need the byte engine");
+            metrics = new LGCAMetrics(metricsEvery);
+            ((LGCA) model).setMetrics(metrics);
+            try {
+                metrics.register("BatchRunner");
+            }
+            catch (JMException e) {
+                System.err.println("Could not register metrics with JMX: " + e);
+            }
+            metrics.startLogging(10);
+        }
+
+        System.out.printf("%s engine, %dx%d, %d steps from step %d, seed %d%n", engine, width, height, steps, model.getCount(), seed);
+        long start = System.nanoTime(), last = start;
+        int lastStep = 0;
+        for (int s = 0; s < steps; ) {
+            if (timeBlock > 1 || model instanceof OffHeapLGCA) {
+                // as many steps at once as there are until the next thing to write
+                int n = Math.min(steps - s, untilNext(s, seriesWriter != null ? seriesEvery : 0));
+                n = Math.min(n, Math.min(untilNext(s, snapshot), untilNext(s, report)));
+                n = Math.min(n, untilNext(s, recorder != null ? recordEvery : 0));
+                if (model instanceof OffHeapLGCA)
+                    ((OffHeapLGCA) model).step(n);
+                else
+                    ((LGCA) model).step(n);
+                s += n;
+            }
+            else {
+                model.step();
+                s++;
+            }
+
+            if (seriesWriter != null && s % seriesEvery == 0)
+                seriesWriter.record(model.getCount(), field);
+
+            if (recorder != null && s % recordEvery == 0)
+                recorder.record(model);
+
+            if (snapshot > 0 && s % snapshot == 0)
+                writeSnapshot(model, out.resolve(String.format("step_%07d.pgm", model.getCount())));
+
+            if (report > 0 && (s % report == 0 || s == steps)) {
+                long now = System.nanoTime();
+                double stepsPerSec = (s - lastStep) / ((now - last) / 1e9);
+                System.out.printf("step %d: %.1f steps/s, %.1f MLUPS%n", model.getCount(), stepsPerSec, stepsPerSec * width * height / 1e6);
+                last = now;
+                lastStep = s;
+            }
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+        System.out.printf("Total: %d steps in %.2f s, %.1f steps/s, %.1f MLUPS%n", steps, seconds, steps / seconds, steps / seconds * width * height / 1e6);
+
+        if (metrics != null) {
+            metrics.stopLogging();
+            System.out.println("Metrics: " + metrics.summary());
+        }
+        if (seriesWriter != null) {
+            seriesWriter.close();
+            System.out.printf("Field series: %d frames written, %d dropped, to %s%n", seriesWriter.getWritten(), seriesWriter.getDropped(), series);
+        }
+        if (recorder != null) {
+            recorder.close();
+            System.out.printf("Frames: %d written, %d dropped, to %s%n", recorder.getWritten(), recorder.getDropped(), record);
+        }
+        if (checkpoint != null) {
+            Checkpoint.save((LGCA) model, checkpoint);
+            System.out.println("Checkpoint at step " + model.getCount() + " written to " + checkpoint);
+        }
+        if (model instanceof LGCA)
+            ((LGCA) model).setThreads(1); // lets the pool threads go
+        if (model instanceof OffHeapLGCA)
+            ((OffHeapLGCA) model).setThreads(1);
+    }
+
+    /** Steps from s to the next multiple of every, or Integer.MAX_VALUE if every is 0. */
+    private static int untilNext(int s, int every) {
+        return every > 0 ? every - s % every : Integer.MAX_VALUE;
+    }
+
+    /** Makes the visualizers FrameRecorder paints with, one per encoder thread. */
+    private static Supplier<FramePainter> painter(Lattice model, String view, int scale, int block) {
+        switch (view) {
+            case "density": return () -> {
+                Visualizer visualizer = new Visualizer(model);
+                visualizer.setCellSize(scale);
+                return visualizer;
+            };
+            case "cell":  return () -> new VisualizerAVG(model, scale, block, VisualizerAVG.MODE_CELL);
+            case "block": return () -> new VisualizerAVG(model, scale, block, VisualizerAVG.MODE_BLOCK);
+            case "eddy":  return () -> new VisualizerAVG(model, scale, block, VisualizerAVG.MODE_EDDY);
+            default: throw new IllegalArgumentException("Unknown view " + view);
+        }
+    }
+
+    /** Writes the particle count of every cell as an 8-bit grayscale PGM: white = empty, darker = more particles, walls black. */
+    static void writeSnapshot(Lattice model, Path file) throws IOException {
+        // an off-heap lattice is read a row at a time instead of copied onto the heap as a whole
+        OffHeapLGCA offHeap = model instanceof OffHeapLGCA ? (OffHeapLGCA) model : null;
+        byte[][] grid = offHeap == null ? model.getGrid() : null;
+        try (OutputStream os = new BufferedOutputStream(Files.newOutputStream(file))) {
+            os.write(String.format("P5%n%d %d%n255%n", model.getWidth(), model.getHeight()).getBytes());
+            byte[] row = new byte[model.getWidth()], rowCells = new byte[model.getWidth()];
+            for (int y = 0; y < model.getHeight(); y++) {
+                byte[] cells = grid != null ? grid[y] : rowCells;
+                if (offHeap != null)
+                    offHeap.getRow(y).get(0, rowCells);
+                for (int x = 0; x < row.length; x++) {
+                    if ((cells[x] & LGCA.SOLID) != 0)
+                        row[x] = 0;
+                    else
+                        row[x] = (byte) (255 - 40 * Integer.bitCount(cells[x] & LGCA.PARTICLE_BITS));
+                }
+                os.write(row);
+            }
+        }
+    }
+
+    static int[] parseInts(String value, int n) {
+        String[] parts = value.split(",");
+        if (parts.length != n)
+            throw new IllegalArgumentException("Expected " + n + " comma separated values, got " + value);
+        int[] result = new int[n];
+        for (int i = 0; i < n; i++) {
+            result[i] = Integer.parseInt(parts[i].trim());
+        }
+        return result;
+    }
+
+    static Boundary[] parseBoundaries(String value) {
+        String[] parts = value.split(",");
+        if (parts.length != 4)
+            throw new IllegalArgumentException("Expected 4 boundaries, got " + value);
+        Boundary[] edges = new Boundary[4];
+        for (int i = 0; i < 4; i++) {
+            edges[i] = Boundary.valueOf(parts[i].trim().toUpperCase());
+        }
+        return edges;
+    }
+
+    static double[] parseDoubles(String value, int n) {
+        String[] parts = value.split(",");
+        if (parts.length != n)
+            throw new IllegalArgumentException("Expected " + n + " comma separated values, got " + value);
+        double[] result = new double[n];
+        for (int i = 0; i < n; i++) {
+            result[i] = Double.parseDouble(parts[i].trim());
+        }
+        return result;
+    }
+}
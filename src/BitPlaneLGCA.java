@@ -0,0 +1,276 @@
+import java.util.Arrays;
+
+/**
+ * Multi-spin coded version of LGCA: every direction bit, the SOLID bit and the RAND bit are kept in their own
+ * bit plane of longs, so one word operation updates 64 cells of a row at once.
+ * Collision is boolean algebra across the planes and propagation is word shifts, with the row parity deciding
+ * which diagonal neighbors are used (odd rows are shifted half a cell to the right, like in LGCA).
+ *
+ * Given the same seed it produces exactly the same lattice as LGCA, step for step.
+ */
+public class BitPlaneLGCA implements Lattice {
+    private static final int E = 0, NE = 1, NW = 2, W = 3, SW = 4, SE = 5;
+    private static final int[] OPPOSITE = {W, SW, SE, E, NE, NW};
+    private static final int[] REFLECTED = new int[6]; // direction index after hitting a wall
+    static {
+        for (int d = 0; d < 6; d++) {
+            REFLECTED[d] = Integer.numberOfTrailingZeros(LGCA.REFLECTED[d]);
+        }
+    }
+
+    private final int width, height;
+    private final int words; // longs per row, bit b of word w is column 64*w + b
+    private final long seed;
+    private int count = 0;
+
+    private int wallX = 300, wallFrom = 300, wallTo = 400;
+    private Obstacles obstacles;
+    private long[] inflowThresholds = LGCA.inflowThresholds(new double[]{0.8,0.5,0.2,0.1,0.2,0.5});
+
+    // [direction][y*words + w], swapped every step
+    private long[][] planes, nextPlanes;
+    private final long[] solid, random;
+
+    private final long[] valid;     // columns x < width
+    private final long[] receiving;  // columns x < width-1, the last column is a particle sink
+    private final long[][] notSink = new long[3][]; // by dx+1: columns whose target x+dx is not in the sink
+    private final long[] out = new long[6]; // scratch for one word of propagate()
+
+    private byte[][] gridView;
+
+    public BitPlaneLGCA(int width, int height, long seed) {
+        this.width = width;
+        this.height = height;
+        this.words = (width + 63) >>> 6;
+        this.seed = seed;
+
+        planes = new long[6][words * height];
+        nextPlanes = new long[6][words * height];
+        solid = new long[words * height];
+        random = new long[words * height];
+
+        valid = columnsBelow(width);
+        receiving = columnsBelow(width - 1);
+        for (int dx = -1; dx <= 1; dx++) {
+            notSink[dx + 1] = columnsBelow(width - 1 - dx);
+        }
+    }
+
+    /** Mask of the columns x < limit. */
+    private long[] columnsBelow(int limit) {
+        long[] mask = new long[words];
+        for (int x = 0; x < Math.min(limit, width); x++) {
+            mask[x >> 6] |= 1L << x;
+        }
+        return mask;
+    }
+
+    public void initialize() {
+        // border walls
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                if (x == 0 || x == width - 1 || y == 0 || y == height - 1)
+                    setSolid(x, y);
+            }
+        }
+        setWall();
+        if (obstacles != null) {
+            for (int y = 0; y < height; y++) {
+                for (int x = 0; x < width; x++) {
+                    if (obstacles.isSolid(x, y))
+                        setSolid(x, y);
+                }
+            }
+        }
+        setup();
+
+        // RAND bits for the first collision
+        for (int y = 0; y < height; y++) {
+            for (int w = 0; w < words; w++) {
+                int i = y * words + w;
+                random[i] = LGCA.randomWord(seed, count, y, w) & ~solid[i] & valid[w];
+            }
+        }
+    }
+
+    public void setWall() {
+        if (wallX < 0 || wallX >= width)
+            return;
+        for (int i = Math.max(0, wallFrom); i < Math.min(height, wallTo); i++) {
+            setSolid(wallX, i);
+        }
+    }
+
+    public void setWallSegment(int x, int fromRow, int toRow) {
+        wallX = x;
+        wallFrom = fromRow;
+        wallTo = toRow;
+    }
+
+    public void setObstacles(Obstacles obstacles) {
+        this.obstacles = obstacles;
+    }
+
+    public void setInflowWeights(double[] weights) {
+        inflowThresholds = LGCA.inflowThresholds(weights);
+    }
+
+    private void setSolid(int x, int y) {
+        int i = y * words + (x >> 6);
+        long bit = 1L << x;
+        solid[i] |= bit;
+        for (int d = 0; d < 6; d++) {
+            planes[d][i] &= ~bit;
+        }
+    }
+
+    public void setup() {
+        for (int y = 1; y < height - 1; y++) {
+            byte b = LGCA.inflowByte(seed, count, LGCA.LEFT, y, inflowThresholds); // same cells as LGCA.setup()
+            int i = y * words + (1 >> 6);
+            long bit = 1L << 1;
+            if ((solid[i] & bit) != 0)
+                continue; // walls get no inflow, like in LGCA
+            for (int d = 0; d < 6; d++) {
+                if ((b & (1 << d)) != 0)
+                    planes[d][i] |= bit;
+                else
+                    planes[d][i] &= ~bit;
+            }
+        }
+    }
+
+    /** FHP-I collisions, 64 cells per word. Only exact pair and triple configurations collide. */
+    public void collision() {
+        long[] p0 = planes[E], p1 = planes[NE], p2 = planes[NW], p3 = planes[W], p4 = planes[SW], p5 = planes[SE];
+
+        for (int i = 0; i < solid.length; i++) {
+            long a0 = p0[i], a1 = p1[i], a2 = p2[i], a3 = p3[i], a4 = p4[i], a5 = p5[i];
+            long r = random[i], fluid = ~solid[i];
+
+            long pairEW = a0 & a3 & ~(a1 | a2 | a4 | a5) & fluid;
+            long pairNESW = a1 & a4 & ~(a0 | a2 | a3 | a5) & fluid;
+            long pairNWSE = a2 & a5 & ~(a0 | a1 | a3 | a4) & fluid;
+            long tri1 = a0 & a2 & a4 & ~(a1 | a3 | a5) & fluid;
+            long tri2 = a1 & a3 & a5 & ~(a0 | a2 | a4) & fluid;
+            long keep = ~(pairEW | pairNESW | pairNWSE | tri1 | tri2);
+
+            // the RAND bit rotates pairs counterclockwise when set, clockwise otherwise
+            long toEW = (pairNESW & ~r) | (pairNWSE & r);
+            long toNESW = (pairEW & r) | (pairNWSE & ~r);
+            long toNWSE = (pairEW & ~r) | (pairNESW & r);
+
+            p0[i] = (a0 & keep) | toEW | tri2;
+            p3[i] = (a3 & keep) | toEW | tri1;
+            p1[i] = (a1 & keep) | toNESW | tri1;
+            p4[i] = (a4 & keep) | toNESW | tri2;
+            p2[i] = (a2 & keep) | toNWSE | tri2;
+            p5[i] = (a5 & keep) | toNWSE | tri1;
+        }
+    }
+
+    /** Streaming by word shifts: each row gathers from its neighbor rows, same rules as LGCA.propagate(). */
+    public void propagate() {
+        long nextStep = count + 1;
+
+        for (int y = 0; y < height; y++) {
+            int p = y & 1;
+            int row = y * words;
+
+            for (int w = 0; w < words; w++) {
+                int i = row + w;
+                long fluid = ~solid[i] & valid[w];
+                Arrays.fill(out, 0);
+
+                for (int d = 0; d < 6; d++) {
+                    int dx = LGCA.DX[p][d], ny = y + LGCA.DY[d];
+                    boolean rowInside = ny >= 0 && ny < height;
+
+                    // particles in the neighbor in direction d moving towards us
+                    if (rowInside) {
+                        out[OPPOSITE[d]] |= gather(planes[OPPOSITE[d]], ny * words, w, dx, 0) & receiving[w];
+                    }
+                    // our own particles bouncing off a wall or the lattice border (out of bounds on the left is a wall)
+                    long blocked = rowInside ? gather(solid, ny * words, w, dx, 1) : -1L;
+                    out[REFLECTED[d]] |= planes[d][i] & blocked & notSink[dx + 1][w];
+                }
+
+                for (int d = 0; d < 6; d++) {
+                    nextPlanes[d][i] = out[d] & fluid;
+                }
+                random[i] = LGCA.randomWord(seed, nextStep, y, w) & fluid;
+            }
+        }
+
+        long[][] temp = planes;
+        planes = nextPlanes;
+        nextPlanes = temp;
+    }
+
+    /**
+     * The row starting at base, shifted so that bit x of the result is column x+dx of the row.
+     * fill is the value of column -1.
+     */
+    private long gather(long[] plane, int base, int w, int dx, long fill) {
+        long v = plane[base + w];
+        if (dx > 0) {
+            long next = w + 1 < words ? plane[base + w + 1] : 0;
+            return (v >>> 1) | (next << 63);
+        }
+        if (dx < 0) {
+            long prev = w > 0 ? plane[base + w - 1] >>> 63 : fill;
+            return (v << 1) | prev;
+        }
+        return v;
+    }
+
+    public void step() {
+        collision();
+        propagate();
+        count++;
+        setup();
+    }
+
+    public int getCount() {
+        return count;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    /** Converts the bit planes to LGCA's byte-per-cell layout. The arrays are reused between calls. */
+    public byte[][] getGrid() {
+        if (gridView == null)
+            gridView = new byte[height][width];
+
+        for (int y = 0; y < height; y++) {
+            copyRow(y, gridView[y], 0);
+        }
+        return gridView;
+    }
+
+    public void copyCells(byte[] dst) {
+        for (int y = 0; y < height; y++) {
+            copyRow(y, dst, y * width);
+        }
+    }
+
+    /** Converts row y to cell bytes at dst[offset..offset+width). */
+    private void copyRow(int y, byte[] dst, int offset) {
+        for (int x = 0; x < width; x++) {
+            int i = y * words + (x >> 6);
+            int b = 0;
+            for (int d = 0; d < 6; d++) {
+                b |= (int) (planes[d][i] >>> x & 1) << d;
+            }
+            b |= (int) (solid[i] >>> x & 1) << 6;
+            b |= (int) (random[i] >>> x & 1) << 7;
+            dst[offset + x] = (byte) b;
+        }
+    }
+}
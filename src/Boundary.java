@@ -0,0 +1,11 @@
+/** What happens at an edge of an LGCA lattice, see LGCA.setBoundaries(). */
+public enum Boundary {
+    /** Solid edge, particles bounce back off it the way they came, as off any wall. */
+    WALL,
+    /** Solid edge whose neighboring cells get a fresh random set of particles every step, with the inflow weights. */
+    INFLOW,
+    /** Open edge: particles moving onto it leave the lattice and nothing comes in. */
+    OUTFLOW,
+    /** Particles leaving here come in at the opposite edge, which has to be PERIODIC as well. */
+    PERIODIC
+}
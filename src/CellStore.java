@@ -0,0 +1,108 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Cell bytes of a width x height lattice outside the Java heap, for OffHeapLGCA. The rows are kept in direct or
+ * file-mapped ByteBuffers of whole rows, at most CHUNK_BYTES each, so the lattice as a whole can be far bigger than
+ * an array (2^31 cells) and the heap never sees it. Rows are only copied in and out in blocks; the stepping itself
+ * runs on small arrays.
+ *
+ * ByteBuffers rather than MemorySegments because the build targets Java 17, where the foreign memory API is still
+ * an incubator module (final only from Java 22); a buffer can't pass 2 GB, hence the chunks.
+ */
+public class CellStore {
+    static final int CHUNK_BYTES = 1 << 30;
+    private static final int ALIGN = 64; // direct chunks start on a cache line
+
+    private final int width, height, rowsPerChunk;
+    private final ByteBuffer[] chunks;
+
+    private CellStore(int width, int height, ByteBuffer[] chunks) {
+        this.width = width;
+        this.height = height;
+        this.rowsPerChunk = rowsPerChunk(width);
+        this.chunks = chunks;
+    }
+
+    private static int rowsPerChunk(int width) {
+        return Math.max(1, CHUNK_BYTES / width);
+    }
+
+    private static int chunkCount(int width, int height) {
+        int rows = rowsPerChunk(width);
+        return (height + rows - 1) / rows;
+    }
+
+    /**
+     * Zeroed direct memory. Counts against -XX:MaxDirectMemorySize (by default as big as the maximum heap),
+     * and is given back when the store is garbage collected.
+     */
+    public static CellStore allocate(int width, int height) {
+        ByteBuffer[] chunks = new ByteBuffer[chunkCount(width, height)];
+        int rows = rowsPerChunk(width);
+        for (int c = 0; c < chunks.length; c++) {
+            int size = Math.min(rows, height - c * rows) * width;
+            // alignedSlice() rounds both ends to ALIGN, so leave room at both
+            chunks[c] = ByteBuffer.allocateDirect(size + 2 * ALIGN).alignedSlice(ALIGN).slice(0, size);
+        }
+        return new CellStore(width, height, chunks);
+    }
+
+    /**
+     * The region of file at offset (bytes(width, height) long), mapped read-write; the file grows as needed. Pages
+     * that aren't being stepped can go back to the disk, so the lattice can be bigger than the memory.
+     */
+    public static CellStore map(FileChannel file, long offset, int width, int height) throws IOException {
+        ByteBuffer[] chunks = new ByteBuffer[chunkCount(width, height)];
+        int rows = rowsPerChunk(width);
+        for (int c = 0; c < chunks.length; c++) {
+            int size = Math.min(rows, height - c * rows) * width;
+            chunks[c] = file.map(FileChannel.MapMode.READ_WRITE, offset + (long) c * rows * width, size);
+        }
+        return new CellStore(width, height, chunks);
+    }
+
+    /** Bytes of a width x height store. */
+    public static long bytes(int width, int height) {
+        return (long) width * height;
+    }
+
+    /** Copies rows y to y + rows - 1 into dst at off. */
+    public void read(int y, int rows, byte[] dst, int off) {
+        while (rows > 0) {
+            int c = y / rowsPerChunk, first = y - c * rowsPerChunk;
+            int n = Math.min(rows, rowsPerChunk - first);
+            chunks[c].get(first * width, dst, off, n * width);
+            y += n;
+            rows -= n;
+            off += n * width;
+        }
+    }
+
+    /** Overwrites rows y to y + rows - 1 from src at off. */
+    public void write(int y, int rows, byte[] src, int off) {
+        while (rows > 0) {
+            int c = y / rowsPerChunk, first = y - c * rowsPerChunk;
+            int n = Math.min(rows, rowsPerChunk - first);
+            chunks[c].put(first * width, src, off, n * width);
+            y += n;
+            rows -= n;
+            off += n * width;
+        }
+    }
+
+    /** Read-only view of row y, position 0 is column 0. */
+    public ByteBuffer row(int y) {
+        int c = y / rowsPerChunk, first = y - c * rowsPerChunk;
+        return chunks[c].slice(first * width, width).asReadOnlyBuffer();
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+}
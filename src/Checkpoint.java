@@ -0,0 +1,105 @@
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Binary checkpoint of an LGCA run, written and read through memory-mapped files so even big lattices go
+ * to disk and back at copy speed.
+ *
+ * Layout (big-endian): a 128 byte header
+ *   int magic "LGCA", int version, int width, int height, int step count, long seed, 6 x double inflow weights,
+ *   4 x byte Boundary ordinal of the LEFT, RIGHT, TOP and BOTTOM edges (version 2; version 1 files have the defaults)
+ * followed by the width*height cell bytes, row-major, exactly as the engine holds them.
+ *
+ * All randomness of LGCA is a function of seed, step and position, so seed and count are the whole RNG state
+ * and a restored run continues exactly like the original one.
+ */
+public class Checkpoint {
+    static final int MAGIC = 0x4C474341; // "LGCA"
+    static final int VERSION = 2;
+    static final int HEADER_SIZE = 128;
+    private static final int CHUNK = 1 << 30; // bytes mapped at a time
+
+    public static void save(LGCA model, Path file) throws IOException {
+        byte[] cells = model.getCells();
+
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            MappedByteBuffer header = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE);
+            header.putInt(MAGIC);
+            header.putInt(VERSION);
+            header.putInt(model.getWidth());
+            header.putInt(model.getHeight());
+            header.putInt(model.getCount());
+            header.putLong(model.getSeed());
+            for (double w : model.getInflowWeights()) {
+                header.putDouble(w);
+            }
+            for (Boundary b : model.getBoundaries()) {
+                header.put((byte) b.ordinal());
+            }
+            header.force();
+
+            for (int offset = 0; offset < cells.length; offset += CHUNK) {
+                int length = Math.min(CHUNK, cells.length - offset);
+                MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, HEADER_SIZE + (long) offset, length);
+                buffer.put(cells, offset, length);
+                buffer.force();
+            }
+        }
+    }
+
+    /** Creates an LGCA in the state of the checkpoint. Don't call initialize() on it, the walls are in the lattice. */
+    public static LGCA load(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            if (channel.size() < HEADER_SIZE)
+                throw new IOException(file + " is not an LGCA checkpoint (too short)");
+
+            MappedByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_SIZE);
+            if (header.getInt() != MAGIC)
+                throw new IOException(file + " is not an LGCA checkpoint");
+            int version = header.getInt();
+            if (version != 1 && version != VERSION)
+                throw new IOException("Unsupported checkpoint version " + version + " in " + file);
+
+            int width = header.getInt(), height = header.getInt(), count = header.getInt();
+            long seed = header.getLong();
+            double[] weights = new double[6];
+            for (int d = 0; d < 6; d++) {
+                weights[d] = header.getDouble();
+            }
+            Boundary[] edges = {Boundary.INFLOW, Boundary.OUTFLOW, Boundary.WALL, Boundary.WALL}; // LGCA's defaults
+            if (version >= 2) {
+                for (int e = 0; e < 4; e++) {
+                    int ordinal = header.get() & 0xFF;
+                    if (ordinal >= Boundary.values().length)
+                        throw new IOException("Unknown boundary " + ordinal + " in " + file);
+                    edges[e] = Boundary.values()[ordinal];
+                }
+            }
+
+            long expected = HEADER_SIZE + (long) width * height;
+            if (channel.size() != expected)
+                throw new IOException("Checkpoint " + file + " has " + channel.size() + " bytes, expected " + expected);
+
+            byte[] cells = new byte[width * height];
+            for (int offset = 0; offset < cells.length; offset += CHUNK) {
+                int length = Math.min(CHUNK, cells.length - offset);
+                channel.map(FileChannel.MapMode.READ_ONLY, HEADER_SIZE + (long) offset, length).get(cells, offset, length);
+            }
+
+            LGCA model = new LGCA(width, height, seed);
+            model.setInflowWeights(weights);
+            try {
+                model.setBoundaries(edges[LGCA.LEFT], edges[LGCA.RIGHT], edges[LGCA.TOP], edges[LGCA.BOTTOM]);
+            }
+            catch (IllegalArgumentException e) {
+                throw new IOException("Bad boundaries in checkpoint " + file, e); // e.g. PERIODIC on one side only
+            }
+            model.restore(count, cells);
+            return model;
+        }
+    }
+}
@@ -0,0 +1,194 @@
+import java.util.Arrays;
+
+/**
+ * Coarse-grained density and momentum per block of blockSize x blockSize cells, averaged over the last
+ * `window` steps. LGCA output only means something when averaged, so this is what the block visualizations
+ * and the analysis read instead of the raw bits.
+ *
+ * Sums are integers: momentum x is counted in half lattice units (E = 2, NE = 1, ...) and momentum y in
+ * units of sqrt(3)/2 (y downwards), so every cell byte maps to three small ints through lookup tables.
+ * The window is a ring of per-step sums with running totals, so an update costs one pass over the cells
+ * whatever the window length.
+ */
+public class CoarseField {
+    // Particles, momentum x (in 1/2) and momentum y (in sqrt(3)/2) of every cell byte. Walls count as empty.
+    static final int[] MASS = new int[256], MX = new int[256], MY = new int[256];
+    private static final int[] DIR_X = {2, 1, -1, -2, -1, 1};
+    private static final int[] DIR_Y = {0, -1, -1, 0, 1, 1};
+    static {
+        for (int cell = 0; cell < 256; cell++) {
+            if ((cell & LGCA.SOLID) != 0)
+                continue;
+            for (int d = 0; d < 6; d++) {
+                if ((cell & (1 << d)) != 0) {
+                    MASS[cell]++;
+                    MX[cell] += DIR_X[d];
+                    MY[cell] += DIR_Y[d];
+                }
+            }
+        }
+    }
+    private static final double HALF_SQRT3 = Math.sqrt(3.0) / 2;
+
+    private final int width, height, blockSize, blocksX, blocksY, window;
+    // per-step sums, [slot][by*blocksX + bx], the oldest slot is overwritten
+    private final int[][] mass, mx, my;
+    // sums over the window
+    private final int[] totalMass, totalMx, totalMy;
+    private int slot = 0, samples = 0;
+    private int replicas = 1; // fields summed into the totals by sum()
+
+    /** Blocks that don't fit entirely in the lattice are left out, like in VisualizerAVG. */
+    public CoarseField(int width, int height, int blockSize, int window) {
+        if (blockSize < 1 || window < 1)
+            throw new IllegalArgumentException("blockSize and window must be at least 1");
+        this.width = width;
+        this.height = height;
+        this.blockSize = blockSize;
+        this.window = window;
+        this.blocksX = width / blockSize;
+        this.blocksY = height / blockSize;
+
+        int blocks = blocksX * blocksY;
+        mass = new int[window][blocks];
+        mx = new int[window][blocks];
+        my = new int[window][blocks];
+        totalMass = new int[blocks];
+        totalMx = new int[blocks];
+        totalMy = new int[blocks];
+    }
+
+    /** Adds one step of the lattice (row-major, index y*width + x) to the window. */
+    public void accumulate(byte[] cells) {
+        accumulateRows(cells, 0, blocksY);
+        advance();
+    }
+
+    /**
+     * Sums the block rows by0 (inclusive) to by1 (exclusive) of one step into the current slot and updates
+     * their window totals. Different block rows can be done at the same time; call advance() once all are done.
+     */
+    void accumulateRows(byte[] cells, int by0, int by1) {
+        int[] m = mass[slot], px = mx[slot], py = my[slot];
+
+        for (int by = by0; by < by1; by++) {
+            int first = by * blocksX;
+            for (int b = first; b < first + blocksX; b++) {
+                // the slot still holds the step leaving the window
+                totalMass[b] -= m[b];
+                totalMx[b] -= px[b];
+                totalMy[b] -= py[b];
+                m[b] = 0;
+                px[b] = 0;
+                py[b] = 0;
+            }
+
+            for (int y = by * blockSize; y < (by + 1) * blockSize; y++) {
+                int row = y * width;
+                for (int bx = 0; bx < blocksX; bx++) {
+                    int sm = 0, sx = 0, sy = 0;
+                    for (int i = row + bx * blockSize; i < row + (bx + 1) * blockSize; i++) {
+                        int cell = cells[i] & 0xFF;
+                        sm += MASS[cell];
+                        sx += MX[cell];
+                        sy += MY[cell];
+                    }
+                    m[first + bx] += sm;
+                    px[first + bx] += sx;
+                    py[first + bx] += sy;
+                }
+            }
+
+            for (int b = first; b < first + blocksX; b++) {
+                totalMass[b] += m[b];
+                totalMx[b] += px[b];
+                totalMy[b] += py[b];
+            }
+        }
+    }
+
+    /** Moves on to the next slot of the window after all block rows of a step were accumulated. */
+    void advance() {
+        slot = (slot + 1) % window;
+        samples = Math.min(samples + 1, window);
+    }
+
+    /**
+     * Makes the window totals the sums of the totals of parts (fields of the same geometry, e.g. the replicas of an
+     * Ensemble), so copyAverages() gives the mean over the parts. The per-step slots are left empty: accumulating
+     * into this field afterwards needs a clear() first.
+     */
+    void sum(CoarseField[] parts) {
+        Arrays.fill(totalMass, 0);
+        Arrays.fill(totalMx, 0);
+        Arrays.fill(totalMy, 0);
+        int n = window;
+        for (CoarseField part : parts) {
+            if (part.totalMass.length != totalMass.length || part.blockSize != blockSize)
+                throw new IllegalArgumentException("Fields differ in size");
+            for (int b = 0; b < totalMass.length; b++) {
+                totalMass[b] += part.totalMass[b];
+                totalMx[b] += part.totalMx[b];
+                totalMy[b] += part.totalMy[b];
+            }
+            n = Math.min(n, part.samples);
+        }
+        for (int s = 0; s < window; s++) {
+            Arrays.fill(mass[s], 0);
+            Arrays.fill(mx[s], 0);
+            Arrays.fill(my[s], 0);
+        }
+        slot = 0;
+        samples = n;
+        replicas = Math.max(1, parts.length);
+    }
+
+    /** Forgets all steps. */
+    public void clear() {
+        for (int s = 0; s < window; s++) {
+            Arrays.fill(mass[s], 0);
+            Arrays.fill(mx[s], 0);
+            Arrays.fill(my[s], 0);
+        }
+        Arrays.fill(totalMass, 0);
+        Arrays.fill(totalMx, 0);
+        Arrays.fill(totalMy, 0);
+        slot = 0;
+        samples = 0;
+        replicas = 1;
+    }
+
+    /**
+     * Writes the time-averaged particle count and momentum (sum of the unit velocity vectors, y downwards)
+     * of every block into the arrays, index by*blocksX + bx. Arrays must have getBlocksX()*getBlocksY() entries.
+     */
+    public void copyAverages(float[] density, float[] momentumX, float[] momentumY) {
+        double norm = samples > 0 ? 1.0 / ((double) samples * replicas) : 0;
+        for (int b = 0; b < totalMass.length; b++) {
+            density[b] = (float) (totalMass[b] * norm);
+            momentumX[b] = (float) (totalMx[b] * 0.5 * norm);
+            momentumY[b] = (float) (totalMy[b] * HALF_SQRT3 * norm);
+        }
+    }
+
+    public int getBlockSize() {
+        return blockSize;
+    }
+
+    public int getBlocksX() {
+        return blocksX;
+    }
+
+    public int getBlocksY() {
+        return blocksY;
+    }
+
+    public int getWindow() {
+        return window;
+    }
+
+    /** Number of steps currently averaged, up to the window length. */
+    public int getSamples() {
+        return samples;
+    }
+}
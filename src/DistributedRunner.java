@@ -0,0 +1,246 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+/**
+ * Runs one lattice split over several DomainWorker processes, each stepping a strip of rows and trading one
+ * ghost row with each neighbor per step over TCP. This process only hands out the strips and the step counts, and
+ * gathers statistics, snapshots and the final checkpoint; the lattice itself never has to fit in one JVM until then.
+ * The result is the same as one LGCA with the same settings (particles and walls; see LGCA.setSkipEmptyTiles()).
+ *
+ * Usage: java DistributedRunner [--option=value ...]
+ *   --workers=2                      number of strips / worker processes
+ *   --spawn=true                     start the workers here; false = wait for "java DomainWorker host:port" to connect
+ *   --port=0                         port to listen on for the workers (0 = any free one)
+ *   --width=1000 --height=600        lattice size
+ *   --wall=300,300,400               wall column, first row, last row (exclusive); --wall=none for no wall
+ *   --obstacles=file                 image of more walls, see Obstacles (every worker loads it, so it has to be there too)
+ *   --inflow=0.8,0.5,0.2,0.1,0.2,0.5 inflow probability per direction, EAST to SOUTHEAST
+ *   --steps=2000                     number of steps
+ *   --seed=1                         random seed
+ *   --threads=1                      threads per worker
+ *   --report=100                     steps between progress lines (with the global particle count and momentum)
+ *   --snapshot=0                     steps between snapshots, 0 = none (gathers the whole lattice here)
+ *   --out=snapshots                  directory for the snapshots
+ *   --checkpoint=file                gather the lattice and write a Checkpoint at the end
+ */
+public class DistributedRunner {
+    // Commands to the workers
+    static final int RUN = 1, STATS = 2, GATHER = 3, QUIT = 4;
+
+    private final Socket[] sockets;
+    private final DataInputStream[] in;
+    private final DataOutputStream[] out;
+    private final int width, height;
+    private final int[] firstRow; // strip i has rows firstRow[i] to firstRow[i+1] - 1
+
+    private DistributedRunner(int workers, int width, int height) {
+        sockets = new Socket[workers];
+        in = new DataInputStream[workers];
+        out = new DataOutputStream[workers];
+        this.width = width;
+        this.height = height;
+        firstRow = new int[workers + 1];
+        for (int i = 0; i <= workers; i++) {
+            firstRow[i] = (int) ((long) height * i / workers);
+        }
+    }
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        int width = 1000, height = 600;
+        int[] wall = {300, 300, 400};
+        double[] inflow = {0.8, 0.5, 0.2, 0.1, 0.2, 0.5};
+        int steps = 2000, threads = 1, report = 100, snapshot = 0, workers = 2, port = 0;
+        long seed = 1;
+        boolean spawn = true;
+        Path out = Paths.get("snapshots"), checkpoint = null, obstacles = null;
+
+        for (String arg : args) {
+            int eq = arg.indexOf('=');
+            if (!arg.startsWith("--") || eq < 0)
+                throw new IllegalArgumentException("Expected --option=value, got " + arg);
+            String key = arg.substring(2, eq), value = arg.substring(eq + 1);
+            switch (key) {
+                case "workers":  workers = Integer.parseInt(value); break;
+                case "spawn":    spawn = Boolean.parseBoolean(value); break;
+                case "port":     port = Integer.parseInt(value); break;
+                case "width":    width = Integer.parseInt(value); break;
+                case "height":   height = Integer.parseInt(value); break;
+                case "wall":     wall = value.equals("none") ? new int[]{-1, 0, 0} : BatchRunner.parseInts(value, 3); break;
+                case "inflow":   inflow = BatchRunner.parseDoubles(value, 6); break;
+                case "obstacles": obstacles = Paths.get(value).toAbsolutePath(); break;
+                case "steps":    steps = Integer.parseInt(value); break;
+                case "seed":     seed = Long.parseLong(value); break;
+                case "threads":  threads = Integer.parseInt(value); break;
+                case "report":   report = Integer.parseInt(value); break;
+                case "snapshot": snapshot = Integer.parseInt(value); break;
+                case "out":      out = Paths.get(value); break;
+                case "checkpoint": checkpoint = Paths.get(value); break;
+                default: throw new IllegalArgumentException("Unknown option --" + key);
+            }
+        }
+        if (workers < 1 || workers > height)
+            throw new IllegalArgumentException("Need 1 to height workers, got " + workers);
+        if (snapshot > 0)
+            Files.createDirectories(out);
+
+        DistributedRunner runner = new DistributedRunner(workers, width, height);
+        try (ServerSocket server = new ServerSocket(port)) {
+            if (spawn) {
+                String java = Paths.get(System.getProperty("java.home"), "bin", "java").toString();
+                for (int i = 0; i < workers; i++) {
+                    new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"), "DomainWorker",
+                            "localhost:" + server.getLocalPort()).inheritIO().start();
+                }
+            }
+            else {
+                System.out.printf("Waiting for %d workers on port %d%n", workers, server.getLocalPort());
+            }
+            runner.connect(server, seed, wall, obstacles, inflow, threads);
+        }
+
+        System.out.printf("%d workers, %dx%d, %d steps, seed %d%n", workers, width, height, steps, seed);
+        LGCA whole = null; // the gathered lattice, for snapshots and the checkpoint
+        long start = System.nanoTime(), last = start;
+        int lastStep = 0;
+        for (int s = 0; s < steps; ) {
+            int n = Math.min(steps - s, Math.min(untilNext(s, report), untilNext(s, snapshot)));
+            runner.run(n);
+            s += n;
+
+            if (snapshot > 0 && s % snapshot == 0) {
+                whole = runner.gather(whole, seed, inflow);
+                BatchRunner.writeSnapshot(whole, out.resolve(String.format("step_%07d.pgm", whole.getCount())));
+            }
+            if (report > 0 && (s % report == 0 || s == steps)) {
+                long now = System.nanoTime();
+                double stepsPerSec = (s - lastStep) / ((now - last) / 1e9);
+                long[] stats = runner.stats();
+                System.out.printf("step %d: %.1f steps/s, %.1f MLUPS, %d particles, momentum (%.1f, %.1f)%n", stats[0],
+                        stepsPerSec, stepsPerSec * width * height / 1e6, stats[1], stats[2] * 0.5, stats[3] * Math.sqrt(3) / 2);
+                last = now;
+                lastStep = s;
+            }
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+        System.out.printf("Total: %d steps in %.2f s, %.1f steps/s, %.1f MLUPS%n", steps, seconds, steps / seconds, steps / seconds * width * height / 1e6);
+
+        if (checkpoint != null) {
+            whole = runner.gather(whole, seed, inflow);
+            Checkpoint.save(whole, checkpoint);
+            System.out.println("Checkpoint at step " + whole.getCount() + " written to " + checkpoint);
+        }
+        runner.quit();
+    }
+
+    /** Steps from s to the next multiple of every, or Integer.MAX_VALUE if every is 0. */
+    private static int untilNext(int s, int every) {
+        return every > 0 ? every - s % every : Integer.MAX_VALUE;
+    }
+
+    /**
+     * Accepts the workers, in the order they connect, and tells each its strip and where to find the worker of the
+     * strip above (the one below connects to it), then waits until all of them are initialized.
+     */
+    private void connect(ServerSocket server, long seed, int[] wall, Path obstacles, double[] inflow, int threads) throws IOException {
+        String[] hosts = new String[sockets.length];
+        int[] haloPorts = new int[sockets.length];
+        for (int i = 0; i < sockets.length; i++) {
+            sockets[i] = server.accept();
+            sockets[i].setTcpNoDelay(true);
+            in[i] = new DataInputStream(new BufferedInputStream(sockets[i].getInputStream()));
+            out[i] = new DataOutputStream(new BufferedOutputStream(sockets[i].getOutputStream()));
+            haloPorts[i] = in[i].readInt();
+            hosts[i] = sockets[i].getInetAddress().getHostAddress();
+        }
+        for (int i = 0; i < sockets.length; i++) {
+            DataOutputStream o = out[i];
+            o.writeInt(width);
+            o.writeInt(height);
+            o.writeLong(seed);
+            for (int v : wall) {
+                o.writeInt(v);
+            }
+            o.writeUTF(obstacles != null ? obstacles.toString() : "");
+            for (double w : inflow) {
+                o.writeDouble(w);
+            }
+            o.writeInt(threads);
+            o.writeInt(firstRow[i]);
+            o.writeInt(firstRow[i + 1]);
+            o.writeInt(i);
+            o.writeInt(sockets.length);
+            o.writeUTF(i > 0 ? hosts[i - 1] : "");
+            o.writeInt(i > 0 ? haloPorts[i - 1] : -1);
+            o.flush();
+        }
+        for (DataInputStream i : in) {
+            i.readInt();
+        }
+    }
+
+    /** n steps on all workers at once. */
+    private void run(int n) throws IOException {
+        for (DataOutputStream o : out) {
+            o.writeInt(RUN);
+            o.writeInt(n);
+            o.flush();
+        }
+        int count = -1;
+        for (DataInputStream i : in) {
+            int c = i.readInt();
+            if (count >= 0 && c != count)
+                throw new IllegalStateException("Workers out of step: " + count + " and " + c);
+            count = c;
+        }
+    }
+
+    /** Step count, particles, momentum x and y (CoarseField units) summed over all strips. */
+    private long[] stats() throws IOException {
+        for (DataOutputStream o : out) {
+            o.writeInt(STATS);
+            o.flush();
+        }
+        long[] total = new long[4];
+        for (DataInputStream i : in) {
+            total[0] = i.readInt();
+            total[1] += i.readLong();
+            total[2] += i.readLong();
+            total[3] += i.readLong();
+        }
+        return total;
+    }
+
+    /** Collects all strips into whole (created on the first call). */
+    private LGCA gather(LGCA whole, long seed, double[] inflow) throws IOException {
+        if (whole == null) {
+            whole = new LGCA(width, height, seed);
+            whole.setInflowWeights(inflow);
+        }
+        for (DataOutputStream o : out) {
+            o.writeInt(GATHER);
+            o.flush();
+        }
+        byte[] cells = new byte[width * height];
+        for (int i = 0; i < in.length; i++) {
+            in[i].readFully(cells, firstRow[i] * width, (firstRow[i + 1] - firstRow[i]) * width);
+        }
+        whole.restore((int) stats()[0], cells);
+        return whole;
+    }
+
+    private void quit() throws IOException {
+        for (int i = 0; i < out.length; i++) {
+            out[i].writeInt(QUIT);
+            out[i].flush();
+            sockets[i].close();
+        }
+    }
+}
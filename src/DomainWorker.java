@@ -0,0 +1,171 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.file.Paths;
+
+/**
+ * One worker process of a DistributedRunner: owns a strip of rows of the lattice, as an LGCA with one ghost row
+ * above and below, and trades those rows with the workers of the neighboring strips before every step.
+ * Walls, inflow and random bits go by global rows, so the strips together step exactly like one LGCA.
+ *
+ * Usage: java DomainWorker host:port   (the address of the DistributedRunner, which sends everything else)
+ */
+public class DomainWorker {
+    private final int index;
+    private final LGCA strip;
+    private final int width, rows; // rows of the strip itself, without the ghost rows
+    private final byte[] row;
+    private Socket up, down;       // the workers of the strips above and below, null at the top/bottom
+    private DataInputStream upIn, downIn;
+    private DataOutputStream upOut, downOut;
+
+    private DomainWorker(DataInputStream in, ServerSocket haloServer) throws IOException {
+        width = in.readInt();
+        int height = in.readInt();
+        long seed = in.readLong();
+        int wallX = in.readInt(), wallFrom = in.readInt(), wallTo = in.readInt();
+        String obstacles = in.readUTF();
+        double[] inflow = new double[6];
+        for (int d = 0; d < 6; d++) {
+            inflow[d] = in.readDouble();
+        }
+        int threads = in.readInt();
+        int y0 = in.readInt(), y1 = in.readInt();
+        index = in.readInt();
+        int workers = in.readInt();
+        String upHost = in.readUTF();
+        int upPort = in.readInt();
+
+        rows = y1 - y0;
+        row = new byte[width];
+        strip = new LGCA(width, rows + 2, seed, y0 - 1, height);
+        strip.setWallSegment(wallX, wallFrom, wallTo);
+        if (!obstacles.isEmpty())
+            strip.setObstacles(Obstacles.load(Paths.get(obstacles), width, height));
+        strip.setInflowWeights(inflow);
+        strip.setThreads(threads);
+        strip.initialize();
+
+        if (index > 0) {
+            up = new Socket(upHost, upPort);
+            up.setTcpNoDelay(true);
+            upIn = new DataInputStream(new BufferedInputStream(up.getInputStream()));
+            upOut = new DataOutputStream(new BufferedOutputStream(up.getOutputStream()));
+        }
+        if (index < workers - 1) {
+            down = haloServer.accept();
+            down.setTcpNoDelay(true);
+            downIn = new DataInputStream(new BufferedInputStream(down.getInputStream()));
+            downOut = new DataOutputStream(new BufferedOutputStream(down.getOutputStream()));
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        int colon = args[0].lastIndexOf(':');
+        try (Socket coordinator = new Socket(args[0].substring(0, colon), Integer.parseInt(args[0].substring(colon + 1)));
+             ServerSocket haloServer = new ServerSocket(0)) {
+            coordinator.setTcpNoDelay(true);
+            DataInputStream in = new DataInputStream(new BufferedInputStream(coordinator.getInputStream()));
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(coordinator.getOutputStream()));
+            out.writeInt(haloServer.getLocalPort());
+            out.flush();
+
+            DomainWorker worker = new DomainWorker(in, haloServer);
+            out.writeInt(0); // ready
+            out.flush();
+            worker.serve(in, out);
+        }
+    }
+
+    /** Answers the commands of the DistributedRunner until QUIT. */
+    private void serve(DataInputStream in, DataOutputStream out) throws IOException {
+        while (true) {
+            int command = in.readInt();
+            switch (command) {
+                case DistributedRunner.RUN:
+                    int steps = in.readInt();
+                    for (int s = 0; s < steps; s++) {
+                        exchangeHalo();
+                        strip.step();
+                    }
+                    out.writeInt(strip.getCount());
+                    break;
+                case DistributedRunner.STATS:
+                    writeStats(out);
+                    break;
+                case DistributedRunner.GATHER:
+                    for (int y = 1; y <= rows; y++) {
+                        strip.copyRows(y, 1, row, 0);
+                        out.write(row);
+                    }
+                    break;
+                case DistributedRunner.QUIT:
+                    strip.setThreads(1);
+                    if (up != null)
+                        up.close();
+                    if (down != null)
+                        down.close();
+                    return;
+                default:
+                    throw new IOException("Unknown command " + command);
+            }
+            out.flush();
+        }
+    }
+
+    /**
+     * Sends our first and last row to the neighbors and takes theirs as the ghost rows. On every link the upper
+     * worker sends first, and the links with an even upper worker go first, so however big a row is (more than the
+     * socket buffers hold) no two workers wait on each other.
+     */
+    private void exchangeHalo() throws IOException {
+        if (index % 2 == 0) {
+            exchangeDown();
+            exchangeUp();
+        }
+        else {
+            exchangeUp();
+            exchangeDown();
+        }
+    }
+
+    private void exchangeDown() throws IOException {
+        if (down == null)
+            return;
+        strip.copyRows(rows, 1, row, 0);
+        downOut.write(row);
+        downOut.flush();
+        downIn.readFully(row);
+        strip.setRows(rows + 1, 1, row, 0);
+    }
+
+    private void exchangeUp() throws IOException {
+        if (up == null)
+            return;
+        upIn.readFully(row);
+        strip.setRows(0, 1, row, 0);
+        strip.copyRows(1, 1, row, 0);
+        upOut.write(row);
+        upOut.flush();
+    }
+
+    /** Step count, then particles and momentum of the strip's own rows (CoarseField units). */
+    private void writeStats(DataOutputStream out) throws IOException {
+        byte[] cells = strip.getCells();
+        long mass = 0, mx = 0, my = 0;
+        for (int i = width; i < (rows + 1) * width; i++) {
+            int cell = cells[i] & 0xFF;
+            mass += CoarseField.MASS[cell];
+            mx += CoarseField.MX[cell];
+            my += CoarseField.MY[cell];
+        }
+        out.writeInt(strip.getCount());
+        out.writeLong(mass);
+        out.writeLong(mx);
+        out.writeLong(my);
+    }
+}
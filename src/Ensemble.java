@@ -0,0 +1,168 @@
+import java.util.concurrent.BrokenBarrierException;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+/**
+ * R replicas of one scenario that differ only in their seed, stepped side by side on a fixed set of worker threads.
+ * A single lattice only keeps a few cores busy, R of them keep all of them busy and the noise of the averages
+ * goes down by sqrt(R), so the same flow field needs much smaller blocks than VisualizerAVG's spatial averaging.
+ *
+ * Every replica keeps its own CoarseField (single threaded, so the replicas never wait for each other within a step)
+ * and after each step(n) their window totals are summed into getAverage(). A window average is linear in the steps,
+ * so this is the same as averaging the replicas after every step. Nothing is allocated per step: the workers are
+ * started once and meet at two barriers per step(n), taking replicas off a shared counter.
+ */
+public class Ensemble implements AutoCloseable {
+    private final LGCA[] replicas;
+    private final CoarseField[] fields;
+    private final CoarseField average;
+    private final int window;
+    private int count = 0;
+
+    private final Thread[] workers; // empty for one thread, step(n) then runs on the caller
+    private final CyclicBarrier start, done;
+    private final AtomicInteger next = new AtomicInteger();
+    private int segment; // steps of the current step(n), written before the start barrier
+    private volatile boolean closed;
+    private volatile Throwable failure;
+
+    /**
+     * Builds replica i with new LGCA(width, height, seed(seed, i)), lets setup configure it (wall, obstacles,
+     * inflow, boundaries, ...) and initializes it. The replicas run single threaded; threads is the number of
+     * replicas stepped at the same time.
+     */
+    public Ensemble(int width, int height, long seed, int replicas, int threads, int blockSize, int window,
+                    Consumer<LGCA> setup) {
+        if (replicas < 1)
+            throw new IllegalArgumentException("Need at least one replica");
+        this.replicas = new LGCA[replicas];
+        this.fields = new CoarseField[replicas];
+        this.window = window;
+        this.average = new CoarseField(width, height, blockSize, window);
+        for (int i = 0; i < replicas; i++) {
+            LGCA lgca = new LGCA(width, height, seed(seed, i));
+            setup.accept(lgca);
+            lgca.initialize();
+            lgca.setThreads(1);
+            fields[i] = new CoarseField(width, height, blockSize, window);
+            this.replicas[i] = lgca;
+        }
+
+        threads = Math.max(1, Math.min(threads, replicas));
+        workers = new Thread[threads > 1 ? threads : 0];
+        start = new CyclicBarrier(workers.length + 1);
+        done = new CyclicBarrier(workers.length + 1);
+        for (int t = 0; t < workers.length; t++) {
+            workers[t] = new Thread(this::work, "lgca-ensemble-" + t);
+            workers[t].setDaemon(true);
+            workers[t].start();
+        }
+    }
+
+    /** Seed of replica i: replica 0 is the same run as a single LGCA with this seed. */
+    public static long seed(long seed, int i) {
+        return seed + i * 0xD1B54A32D192ED03L;
+    }
+
+    /** Steps every replica n times and updates getAverage(). */
+    public void step(int n) {
+        if (closed)
+            throw new IllegalStateException("Ensemble is closed");
+        if (n <= 0)
+            return;
+        segment = n;
+        next.set(0);
+        if (workers.length == 0) {
+            stepReplicas();
+        }
+        else {
+            await(start);
+            await(done);
+        }
+        if (failure != null)
+            throw new IllegalStateException("Replica failed", failure);
+        count += n;
+        average.sum(fields);
+    }
+
+    private void work() {
+        while (true) {
+            await(start);
+            if (closed)
+                return;
+            try {
+                stepReplicas();
+            }
+            catch (Throwable e) {
+                failure = e;
+            }
+            await(done);
+        }
+    }
+
+    /** Takes replicas off the shared counter until there are none left. */
+    private void stepReplicas() {
+        int n = segment;
+        for (int r = next.getAndIncrement(); r < replicas.length; r = next.getAndIncrement()) {
+            LGCA lgca = replicas[r];
+            CoarseField field = fields[r];
+            if (n >= window) {
+                // only the last window steps end up in the field, the ones before can run without it (and time blocked)
+                lgca.setCoarseField(null);
+                lgca.step(n - window);
+                field.clear();
+                lgca.setCoarseField(field);
+                lgca.step(window);
+            }
+            else {
+                lgca.setCoarseField(field);
+                lgca.step(n);
+            }
+        }
+    }
+
+    private static void await(CyclicBarrier barrier) {
+        try {
+            barrier.await();
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted", e);
+        }
+        catch (BrokenBarrierException e) {
+            throw new IllegalStateException("Ensemble worker lost", e);
+        }
+    }
+
+    /** Mean of the replicas' coarse fields over the last window steps (fewer right after the start). */
+    public CoarseField getAverage() {
+        return average;
+    }
+
+    public LGCA getReplica(int i) {
+        return replicas[i];
+    }
+
+    public int getReplicas() {
+        return replicas.length;
+    }
+
+    public int getThreads() {
+        return Math.max(1, workers.length);
+    }
+
+    public int getCount() {
+        return count;
+    }
+
+    /** Lets the workers go. */
+    @Override
+    public void close() {
+        if (closed)
+            return;
+        closed = true;
+        if (workers.length > 0)
+            await(start);
+    }
+}
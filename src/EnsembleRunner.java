@@ -0,0 +1,138 @@
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+/**
+ * Runs an Ensemble of independently seeded replicas of one scenario and streams the ensemble averaged
+ * density/velocity field to a FieldSeriesWriter file. Same scenario options as BatchRunner.
+ *
+ * Usage: java EnsembleRunner [--option=value ...]
+ *   --replicas=8                     number of replicas
+ *   --threads=cores                  replicas stepped at the same time
+ *   --width=1000 --height=600        lattice size
+ *   --wall=300,300,400               wall column, first row, last row (exclusive); --wall=none for no wall
+ *   --obstacles=file                 image of more walls, see Obstacles
+ *   --inflow=0.8,0.5,0.2,0.1,0.2,0.5 inflow probability per direction, EAST to SOUTHEAST
+ *   --edges=inflow,outflow,wall,wall boundary of the left, right, top and bottom edge, see Boundary
+ *   --steps=2000                     number of steps
+ *   --seed=1                         random seed, replica i runs with Ensemble.seed(seed, i)
+ *   --report=100                     steps between progress lines
+ *   --series=file                    stream the ensemble averages to a FieldSeriesWriter file
+ *   --series-every=10                steps between frames of the series
+ *   --block=4 --window=10            block size and number of steps averaged
+ *   --time-block=1                   steps per sweep over the lattice, see LGCA.setTimeBlock
+ *   --vector=true                    stream with the Vector API kernel when the JVM has it
+ */
+public class EnsembleRunner {
+    public static void main(String[] args) throws IOException {
+        int width = 1000, height = 600;
+        int[] wall = {300, 300, 400};
+        double[] inflow = {0.8, 0.5, 0.2, 0.1, 0.2, 0.5};
+        Boundary[] edges = null;
+        int replicas = 8, threads = Runtime.getRuntime().availableProcessors();
+        int steps = 2000, report = 100, seriesEvery = 10, block = 4, window = 10, timeBlock = 1;
+        long seed = 1;
+        boolean vector = true;
+        Path series = null, obstacles = null;
+
+        for (String arg : args) {
+            int eq = arg.indexOf('=');
+            if (!arg.startsWith("--") || eq < 0)
+                throw new IllegalArgumentException("Expected --option=value, got " + arg);
+            String key = arg.substring(2, eq), value = arg.substring(eq + 1);
+            switch (key) {
+                case "replicas": replicas = Integer.parseInt(value); break;
+                case "threads":  threads = Integer.parseInt(value); break;
+                case "width":    width = Integer.parseInt(value); break;
+                case "height":   height = Integer.parseInt(value); break;
+                case "wall":     wall = value.equals("none") ? new int[]{-1, 0, 0} : BatchRunner.parseInts(value, 3); break;
+                case "inflow":   inflow = BatchRunner.parseDoubles(value, 6); break;
+                case "obstacles": obstacles = Paths.get(value); break;
+                case "edges":    edges = BatchRunner.parseBoundaries(value); break;
+                case "steps":    steps = Integer.parseInt(value); break;
+                case "seed":     seed = Long.parseLong(value); break;
+                case "report":   report = Integer.parseInt(value); break;
+                case "series":   series = Paths.get(value); break;
+                case "series-every": seriesEvery = Integer.parseInt(value); break;
+                case "block":    block = Integer.parseInt(value); break;
+                case "window":   window = Integer.parseInt(value); break;
+                case "time-block": timeBlock = Integer.parseInt(value); break;
+                case "vector":   vector = Boolean.parseBoolean(value); break;
+                default: throw new IllegalArgumentException("Unknown option --" + key);
+            }
+        }
+
+        // loaded once, every replica shares the (read-only) mask
+        Obstacles mask = obstacles != null ? Obstacles.load(obstacles, width, height) : null;
+        int[] w = wall;
+        double[] in = inflow;
+        Boundary[] e = edges;
+        int k = timeBlock;
+        boolean v = vector;
+        Ensemble ensemble = new Ensemble(width, height, seed, replicas, threads, block, window, lgca -> {
+            if (e != null)
+                lgca.setBoundaries(e[0], e[1], e[2], e[3]);
+            lgca.setWallSegment(w[0], w[1], w[2]);
+            if (mask != null)
+                lgca.setObstacles(mask);
+            lgca.setInflowWeights(in);
+            lgca.setTimeBlock(k);
+            lgca.setVectorized(v);
+        });
+
+        FieldSeriesWriter seriesWriter = series != null ? new FieldSeriesWriter(series, ensemble.getAverage(), 64) : null;
+
+        System.out.printf("Ensemble of %d replicas on %d threads, %dx%d, %d steps, seed %d, %dx%d blocks%n",
+                replicas, ensemble.getThreads(), width, height, steps, seed, block, block);
+        long start = System.nanoTime(), last = start;
+        int lastStep = 0;
+        double sites = (double) width * height * replicas;
+        for (int s = 0; s < steps; ) {
+            // as many steps at once as there are until the next frame or progress line
+            int n = Math.min(steps - s, untilNext(s, seriesWriter != null ? seriesEvery : 0));
+            n = Math.min(n, untilNext(s, report));
+            ensemble.step(n);
+            s += n;
+
+            if (seriesWriter != null && s % seriesEvery == 0)
+                seriesWriter.record(ensemble.getCount(), ensemble.getAverage());
+
+            if (report > 0 && (s % report == 0 || s == steps)) {
+                long now = System.nanoTime();
+                double stepsPerSec = (s - lastStep) / ((now - last) / 1e9);
+                System.out.printf("step %d: %.1f steps/s, %.1f MLUPS, %s%n", s, stepsPerSec, stepsPerSec * sites / 1e6,
+                        meanVelocity(ensemble.getAverage()));
+                last = now;
+                lastStep = s;
+            }
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+        System.out.printf("Total: %d steps in %.2f s, %.1f steps/s, %.1f MLUPS%n", steps, seconds, steps / seconds, steps / seconds * sites / 1e6);
+
+        if (seriesWriter != null) {
+            seriesWriter.close();
+            System.out.printf("Field series: %d frames written, %d dropped, to %s%n", seriesWriter.getWritten(), seriesWriter.getDropped(), series);
+        }
+        ensemble.close();
+    }
+
+    /** Steps from s to the next multiple of every, or Integer.MAX_VALUE if every is 0. */
+    private static int untilNext(int s, int every) {
+        return every > 0 ? every - s % every : Integer.MAX_VALUE;
+    }
+
+    /** Particles per cell and mean velocity over all blocks of the averaged field. */
+    private static String meanVelocity(CoarseField field) {
+        int blocks = field.getBlocksX() * field.getBlocksY();
+        float[] density = new float[blocks], mx = new float[blocks], my = new float[blocks];
+        field.copyAverages(density, mx, my);
+        double m = 0, px = 0, py = 0;
+        for (int b = 0; b < blocks; b++) {
+            m += density[b];
+            px += mx[b];
+            py += my[b];
+        }
+        int cells = blocks * field.getBlockSize() * field.getBlockSize();
+        return String.format("density %.3f, u = (%.4f, %.4f)", m / cells, m > 0 ? px / m : 0, m > 0 ? py / m : 0);
+    }
+}
@@ -0,0 +1,150 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/** Reads frames back from a file written by FieldSeriesWriter, by index or by range of steps. */
+public class FieldSeriesReader implements AutoCloseable {
+
+    /** Block layout from the file header. */
+    static class Header {
+        int blocksX, blocksY, blockSize, window;
+    }
+
+    /** One frame: columns indexed by*blocksX + bx. */
+    public static class Frame {
+        public final long step;
+        public final float[] density, velocityX, velocityY;
+
+        Frame(long step, int blocks) {
+            this.step = step;
+            density = new float[blocks];
+            velocityX = new float[blocks];
+            velocityY = new float[blocks];
+        }
+    }
+
+    private final FileChannel channel;
+    private final Header header;
+    private final int blocks;
+    private final long frameSize;
+    private final int frameCount;
+
+    public FieldSeriesReader(Path file) throws IOException {
+        channel = FileChannel.open(file, StandardOpenOption.READ);
+        try {
+            header = readHeader(channel, file);
+        }
+        catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+        blocks = header.blocksX * header.blocksY;
+        frameSize = frameSize(blocks);
+        frameCount = (int) ((channel.size() - FieldSeriesWriter.HEADER_SIZE) / frameSize); // a torn last frame is ignored
+    }
+
+    static long frameSize(int blocks) {
+        return 8 + 3L * 4 * blocks;
+    }
+
+    static Header readHeader(FileChannel channel, Path file) throws IOException {
+        ByteBuffer buf = ByteBuffer.allocate(FieldSeriesWriter.HEADER_SIZE);
+        if (channel.read(buf, 0) < FieldSeriesWriter.HEADER_SIZE || buf.getInt(0) != FieldSeriesWriter.MAGIC)
+            throw new IOException(file + " is not a field series file");
+        buf.flip();
+        buf.getInt();
+        int version = buf.getInt();
+        if (version != FieldSeriesWriter.VERSION)
+            throw new IOException("Unsupported field series version " + version + " in " + file);
+
+        Header h = new Header();
+        h.blocksX = buf.getInt();
+        h.blocksY = buf.getInt();
+        h.blockSize = buf.getInt();
+        h.window = buf.getInt();
+        return h;
+    }
+
+    public int getFrameCount() {
+        return frameCount;
+    }
+
+    public int getBlocksX() {
+        return header.blocksX;
+    }
+
+    public int getBlocksY() {
+        return header.blocksY;
+    }
+
+    public int getBlockSize() {
+        return header.blockSize;
+    }
+
+    /** Number of steps each frame was averaged over. */
+    public int getWindow() {
+        return header.window;
+    }
+
+    /** Step of frame index, without reading the columns. */
+    public long getStep(int index) throws IOException {
+        ByteBuffer buf = ByteBuffer.allocate(8);
+        readFully(buf, offset(index));
+        return buf.getLong(0);
+    }
+
+    /** Frame number index (0 = first in the file). */
+    public Frame read(int index) throws IOException {
+        if (index < 0 || index >= frameCount)
+            throw new IndexOutOfBoundsException("Frame " + index + " of " + frameCount);
+        ByteBuffer buf = ByteBuffer.allocate((int) frameSize);
+        readFully(buf, offset(index));
+        buf.flip();
+
+        Frame f = new Frame(buf.getLong(), blocks);
+        buf.asFloatBuffer().get(f.density).get(f.velocityX).get(f.velocityY);
+        return f;
+    }
+
+    /** All frames with fromStep <= step <= toStep. Frames are in step order, found by binary search. */
+    public List<Frame> readSteps(long fromStep, long toStep) throws IOException {
+        int lo = 0, hi = frameCount;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (getStep(mid) < fromStep)
+                lo = mid + 1;
+            else
+                hi = mid;
+        }
+
+        List<Frame> frames = new ArrayList<>();
+        for (int i = lo; i < frameCount; i++) {
+            Frame f = read(i);
+            if (f.step > toStep)
+                break;
+            frames.add(f);
+        }
+        return frames;
+    }
+
+    private long offset(int index) {
+        return FieldSeriesWriter.HEADER_SIZE + index * frameSize;
+    }
+
+    private void readFully(ByteBuffer buf, long position) throws IOException {
+        while (buf.hasRemaining()) {
+            int n = channel.read(buf, position + buf.position());
+            if (n < 0)
+                throw new IOException("Unexpected end of field series file");
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
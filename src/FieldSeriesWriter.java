@@ -0,0 +1,205 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Streams the block averages of a CoarseField to an append-only binary file on a background thread.
+ *
+ * The simulation thread only copies the averages into a free buffer and hands it over; buffers are recycled
+ * through a bounded pool, and when the writer falls behind far enough that no buffer is free the frame is
+ * dropped (and counted) instead of making the simulation wait on the disk.
+ *
+ * File layout (big-endian), see FieldSeriesReader:
+ *   header: int magic "LGFS", int version, int blocksX, int blocksY, int blockSize, int window,
+ *           (padded to HEADER_SIZE bytes)
+ *   frames: long step, then three columns of blocksX*blocksY floats (index by*blocksX + bx):
+ *           density (particles per cell), velocity x, velocity y (momentum per particle, y downwards)
+ * A new writer starts the file over, unless it is asked to append (e.g. when a run resumes from a checkpoint),
+ * which needs the same block layout and window. Steps only go up within a file, readers binary search them.
+ */
+public class FieldSeriesWriter implements AutoCloseable {
+    static final int MAGIC = 0x4C474653; // "LGFS"
+    static final int VERSION = 1;
+    static final int HEADER_SIZE = 64;
+
+    /** One frame on its way to disk. */
+    private static class Record {
+        long step;
+        final float[] density, momentumX, momentumY;
+
+        Record(int blocks) {
+            density = new float[blocks];
+            momentumX = new float[blocks];
+            momentumY = new float[blocks];
+        }
+    }
+    private static final Record END = new Record(0);
+
+    private final int blocks, blockSize;
+    private final FileChannel channel;
+    private final ByteBuffer buffer; // one encoded frame, writer thread only
+    private final BlockingQueue<Record> free, pending;
+    private final Thread writer;
+    private volatile IOException failure;
+    private long dropped = 0, written = 0;
+    private long lastStep = Long.MIN_VALUE; // of the last frame in the file or queued for it
+
+    /** Writes a new file, replacing what was there. See FieldSeriesWriter(Path, CoarseField, int, boolean). */
+    public FieldSeriesWriter(Path file, CoarseField field, int queueCapacity) throws IOException {
+        this(file, field, queueCapacity, false);
+    }
+
+    /**
+     * queueCapacity = number of frames that can wait for the disk before frames get dropped. append = add to the
+     * frames of an existing (non-empty) file instead of starting over; its block layout and window have to match.
+     */
+    public FieldSeriesWriter(Path file, CoarseField field, int queueCapacity, boolean append) throws IOException {
+        this.blocks = field.getBlocksX() * field.getBlocksY();
+        this.blockSize = field.getBlockSize();
+
+        append &= Files.exists(file) && Files.size(file) > 0;
+        channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        if (append) {
+            FieldSeriesReader.Header header;
+            try {
+                header = FieldSeriesReader.readHeader(channel, file);
+                if (header.blocksX != field.getBlocksX() || header.blocksY != field.getBlocksY() || header.blockSize != blockSize)
+                    throw new IOException(file + " holds a different block layout, can't append");
+                if (header.window != field.getWindow())
+                    throw new IOException(file + " is averaged over " + header.window + " steps, not " + field.getWindow() + ", can't append");
+            }
+            catch (IOException e) {
+                channel.close();
+                throw e;
+            }
+            long frameSize = FieldSeriesReader.frameSize(blocks);
+            // drop a partly written last frame
+            long frames = (channel.size() - HEADER_SIZE) / frameSize;
+            channel.truncate(HEADER_SIZE + frames * frameSize);
+            if (frames > 0) {
+                ByteBuffer step = ByteBuffer.allocate(8);
+                while (step.hasRemaining()) {
+                    if (channel.read(step, HEADER_SIZE + (frames - 1) * frameSize + step.position()) < 0)
+                        throw new IOException("Unexpected end of " + file);
+                }
+                lastStep = step.getLong(0);
+            }
+            channel.position(channel.size());
+        }
+        else {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            header.putInt(MAGIC).putInt(VERSION).putInt(field.getBlocksX()).putInt(field.getBlocksY())
+                    .putInt(blockSize).putInt(field.getWindow());
+            header.rewind();
+            channel.truncate(0);
+            while (header.hasRemaining()) {
+                channel.write(header, header.position());
+            }
+            channel.position(HEADER_SIZE);
+        }
+
+        buffer = ByteBuffer.allocateDirect((int) FieldSeriesReader.frameSize(blocks));
+        free = new ArrayBlockingQueue<>(queueCapacity);
+        pending = new ArrayBlockingQueue<>(queueCapacity + 1); // + END
+        for (int i = 0; i < queueCapacity; i++) {
+            free.add(new Record(blocks));
+        }
+
+        writer = new Thread(this::writeLoop, "lgca-field-writer");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    /**
+     * Queues the current averages of the field as the frame of the given step, which has to be after the last one
+     * in the file. Never blocks: returns false (and counts the frame as dropped) if the writer is too far behind.
+     */
+    public boolean record(long step, CoarseField field) throws IOException {
+        if (failure != null)
+            throw failure;
+        if (step <= lastStep)
+            throw new IllegalArgumentException("Step " + step + " isn't after step " + lastStep + ", the last in the file");
+        Record r = free.poll();
+        if (r == null) {
+            dropped++;
+            return false;
+        }
+        r.step = step;
+        lastStep = step;
+        field.copyAverages(r.density, r.momentumX, r.momentumY);
+        pending.add(r); // can't be full, there are only as many records as free slots
+        written++;
+        return true;
+    }
+
+    private void writeLoop() {
+        float norm = 1f / (blockSize * blockSize);
+        try {
+            while (true) {
+                Record r = pending.take();
+                if (r == END)
+                    break;
+
+                buffer.clear();
+                buffer.putLong(r.step);
+                for (int b = 0; b < blocks; b++) {
+                    buffer.putFloat(r.density[b] * norm);
+                }
+                for (int b = 0; b < blocks; b++) {
+                    buffer.putFloat(r.density[b] > 0 ? r.momentumX[b] / r.density[b] : 0);
+                }
+                for (int b = 0; b < blocks; b++) {
+                    buffer.putFloat(r.density[b] > 0 ? r.momentumY[b] / r.density[b] : 0);
+                }
+                free.add(r); // buffer holds everything now
+
+                buffer.flip();
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+            }
+        }
+        catch (IOException e) {
+            failure = e;
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /** Frames handed to the writer so far. */
+    public long getWritten() {
+        return written;
+    }
+
+    /** Step of the last frame in the file or queued for it, Long.MIN_VALUE if there is none. */
+    public long getLastStep() {
+        return lastStep;
+    }
+
+    /** Frames dropped because the writer was behind. */
+    public long getDropped() {
+        return dropped;
+    }
+
+    /** Writes out everything queued and closes the file. */
+    @Override
+    public void close() throws IOException {
+        pending.add(END);
+        try {
+            writer.join();
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        channel.force(false);
+        channel.close();
+        if (failure != null)
+            throw failure;
+    }
+}
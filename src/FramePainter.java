@@ -0,0 +1,11 @@
+import java.awt.*;
+
+/** Draws a LatticeFrame, what the visualizers do on screen and FrameRecorder does off screen. */
+interface FramePainter {
+    /** Draws frame over the background, at getPreferredSize(). */
+    void paintFrame(Graphics g, LatticeFrame frame);
+
+    Dimension getPreferredSize();
+
+    Color getBackground();
+}
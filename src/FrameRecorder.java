@@ -0,0 +1,170 @@
+import javax.imageio.ImageIO;
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * Renders frames of a run off screen, with a visualizer, and writes them as an image sequence named by step
+ * (step_0000010.png, ...) on a pool of encoder threads. Works headless (-Djava.awt.headless=true).
+ *
+ * Like FieldSeriesWriter, the simulation thread only copies the lattice into a free LatticeFrame and hands it
+ * over; frames are recycled through a bounded pool, and when the encoders fall behind far enough that none is
+ * free the frame is dropped (and counted) instead of making the simulation wait. Every encoder thread has a
+ * painter and an image of its own, so nothing is shared but the frames. A dropped frame leaves a gap in the
+ * steps, every file still says which step it shows.
+ */
+public class FrameRecorder implements AutoCloseable {
+    /** PNG, or binary PPM: a short header and the raw RGB bytes, much cheaper to write. */
+    public enum Format { PNG, PPM }
+
+    private final Path dir;
+    private final Format format;
+    private final int width, height; // of the images
+    private final BlockingQueue<LatticeFrame> free;
+    private final ExecutorService encoders;
+    private final ThreadLocal<Encoder> encoder;
+    private final AtomicInteger written = new AtomicInteger();
+    private volatile IOException failure;
+    private long dropped = 0;
+
+    /** What one encoder thread works with. */
+    private class Encoder {
+        final FramePainter painter;
+        final BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        final byte[] rgb = format == Format.PPM ? new byte[3 * width * height] : null;
+
+        Encoder(FramePainter painter) {
+            this.painter = painter;
+        }
+    }
+
+    /**
+     * painters makes one painter per encoder thread (e.g. () -> new VisualizerAVG(model, 2, 16, MODE_BLOCK)), all
+     * of the same size. queueCapacity = number of frames that can wait for an encoder before frames get dropped.
+     */
+    public FrameRecorder(Path dir, Format format, Lattice model, Supplier<? extends FramePainter> painters,
+                         int threads, int queueCapacity) throws IOException {
+        Files.createDirectories(dir);
+        this.dir = dir;
+        this.format = format;
+        Dimension size = painters.get().getPreferredSize();
+        this.width = size.width;
+        this.height = size.height;
+
+        free = new ArrayBlockingQueue<>(queueCapacity);
+        for (int i = 0; i < queueCapacity; i++) {
+            free.add(new LatticeFrame(model.getWidth(), model.getHeight()));
+        }
+        encoder = ThreadLocal.withInitial(() -> new Encoder(painters.get()));
+        AtomicInteger n = new AtomicInteger();
+        encoders = Executors.newFixedThreadPool(Math.max(1, threads), r -> {
+            Thread t = new Thread(r, "lgca-frame-encoder-" + n.getAndIncrement());
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    /**
+     * Queues the current state of model as the next frame. Never blocks: returns false (and counts the frame
+     * as dropped) if the encoders are too far behind.
+     */
+    public boolean record(Lattice model) throws IOException {
+        if (failure != null)
+            throw failure;
+        LatticeFrame frame = free.poll();
+        if (frame == null) {
+            dropped++;
+            return false;
+        }
+        frame.copyFrom(model);
+        int step = frame.getStep(); // the frame is reused once painted
+        encoders.execute(() -> encode(frame, step));
+        return true;
+    }
+
+    private void encode(LatticeFrame frame, int step) {
+        Encoder e = encoder.get();
+        try {
+            Graphics2D g = e.image.createGraphics();
+            g.setColor(e.painter.getBackground());
+            g.fillRect(0, 0, width, height);
+            e.painter.paintFrame(g, frame);
+            g.dispose();
+        }
+        finally {
+            free.add(frame); // the rest only needs the image
+        }
+
+        try {
+            Path file = dir.resolve(String.format("step_%07d.%s", step, format == Format.PNG ? "png" : "ppm"));
+            if (format == Format.PNG) {
+                if (!ImageIO.write(e.image, "png", file.toFile()))
+                    throw new IOException("No PNG writer");
+            }
+            else {
+                writePpm(e, file);
+            }
+            written.incrementAndGet();
+        }
+        catch (IOException ex) {
+            failure = ex;
+        }
+        catch (UncheckedIOException ex) {
+            failure = ex.getCause();
+        }
+    }
+
+    private void writePpm(Encoder e, Path file) throws IOException {
+        int[] pixels = ((DataBufferInt) e.image.getRaster().getDataBuffer()).getData();
+        byte[] rgb = e.rgb;
+        for (int i = 0, j = 0; i < pixels.length; i++, j += 3) {
+            rgb[j] = (byte) (pixels[i] >> 16);
+            rgb[j + 1] = (byte) (pixels[i] >> 8);
+            rgb[j + 2] = (byte) pixels[i];
+        }
+        try (OutputStream os = new BufferedOutputStream(Files.newOutputStream(file))) {
+            os.write(String.format("P6%n%d %d%n255%n", width, height).getBytes());
+            os.write(rgb);
+        }
+    }
+
+    /** Frames written so far. */
+    public long getWritten() {
+        return written.get();
+    }
+
+    /** Frames dropped because no frame buffer was free. */
+    public long getDropped() {
+        return dropped;
+    }
+
+    /** Waits for the queued frames to be written. */
+    @Override
+    public void close() throws IOException {
+        encoders.shutdown();
+        try {
+            while (!encoders.awaitTermination(1, TimeUnit.SECONDS)) {
+                // still encoding
+            }
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while writing frames", e);
+        }
+        if (failure != null)
+            throw failure;
+    }
+}
@@ -1,6 +1,10 @@
+import java.util.Arrays;
 import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.stream.IntStream;
 
-public class LGCA {
+public class LGCA implements Lattice {
     public static final byte EAST = 1<<0, NORTHEAST = 1<<1, NORTHWEST = 1<<2, WEST = 1<<3, SOUTHWEST = 1<<4, SOUTHEAST = 1<<5;
     public static final byte SOLID = 1<<6;
 
@@ -10,25 +14,115 @@ public class LGCA {
     int count = 0;
 
     // Detect 2-particle head-on collisions:
-    byte oppEW = EAST | WEST;
-    byte oppNESW = NORTHEAST | SOUTHWEST;
-    byte oppNWSE = NORTHWEST | SOUTHEAST;
+    static final byte oppEW = EAST | WEST;
+    static final byte oppNESW = NORTHEAST | SOUTHWEST;
+    static final byte oppNWSE = NORTHWEST | SOUTHEAST;
 
     // Detect 3-particle collisions:
-    byte tri1 = EAST | NORTHWEST | SOUTHWEST;   // 0,2,4
-    byte tri2 = NORTHEAST | WEST | SOUTHEAST;   // 1,3,5
+    static final byte tri1 = EAST | NORTHWEST | SOUTHWEST;   // 0,2,4
+    static final byte tri2 = NORTHEAST | WEST | SOUTHEAST;   // 1,3,5
 
+    // Outcome of a collision for every possible cell byte, RAND bit included (it picks the rotation direction)
+    static final byte[] COLLISION = new byte[256];
+    // Leaves every cell byte as it is, for streaming cells that already collided
+    static final byte[] IDENTITY = new byte[256];
+    static {
+        for (int v = 0; v < 256; v++) {
+            COLLISION[v] = applyCollision((byte) v);
+            IDENTITY[v] = (byte) v;
+        }
+    }
 
     private int width, height;
-    private byte[][] grid, nextGrid;
-    private Random rand = new Random();
+    // Flat row-major lattice: cell (x,y) lives at index y*width + x
+    private byte[] grid, nextGrid;
+    private byte[][] gridView; // compatibility copy handed out by getGrid()
+    private final long seed;
+    // For a strip of a bigger lattice (see DomainWorker): the global row of local row 0 and the height of the whole
+    // lattice. Walls, inflow and random bits go by global rows, so a strip steps exactly like its rows of the whole.
+    // OffHeapLGCA moves its strips from band to band with rebase().
+    private int rowOffset;
+    private final int globalHeight;
+
+    // Wall segment placed by setWall(), column wallX from row wallFrom to wallTo (exclusive)
+    private int wallX = 300, wallFrom = 300, wallTo = 400; //200,300
+    private Obstacles obstacles; // more solid cells, by global row
+    // Per cell, the directions whose neighbor is solid (or off the lattice): the particles that bounce back.
+    // Walls don't move, so this is worked out once by updateWalls() instead of on every step.
+    private final byte[] wallDirs;
+    // Chance of a particle in each direction (EAST to SOUTHEAST) for the inflow cells in column 1
+    private double[] inflowWeights = {0.8,0.5,0.2,0.1,0.2,0.5};
+    private long[] inflowThresholds = inflowThresholds(inflowWeights);
+
+    // Edges, indexes into boundaries
+    public static final int LEFT = 0, RIGHT = 1, TOP = 2, BOTTOM = 3;
+    private final Boundary[] boundaries = {Boundary.INFLOW, Boundary.OUTFLOW, Boundary.WALL, Boundary.WALL};
+    // The same as flags, so the edge paths don't have to look them up
+    private boolean periodicX, periodicY, outLeft, outRight, outTop, outBottom;
+    private boolean inflowLeft, inflowRight, inflowTop, inflowBottom;
+
+    private int threads = 1;
+    private ForkJoinPool pool; // only when threads > 1
+    private CoarseField field; // updated after every step if set
+    private LGCAMetrics metrics; // null = no instrumentation
+
+    // Activity tracking: the lattice is cut into tiles of TILE_W x TILE_H cells, and a step only visits the tiles
+    // that have particles in or next to them. Particles move one cell per step, so those are the only tiles whose
+    // cells can change. TILE_W is the width of one randomWord(), so a tile uses whole random words.
+    static final int TILE_W = 64, TILE_H = 16;
+    private final int tilesX, tilesY;
+    // Per tile, whether grid (active) or nextGrid (nextActive) may hold particles there
+    private boolean[] active, nextActive;
+    private final boolean[] work; // tiles streamed this step
+    private final boolean[] inflowTiles; // tiles on an inflow line
+    private final boolean[] simpleTiles; // tiles with no walls in or next to them, away from the edges
+    private boolean skipEmptyTiles = true;
+    private int timeBlock = 1; // steps per sweep in step(n)
+
+    // Vector API kernel for the open tiles, null if it isn't on the class path or the JVM has no jdk.incubator.vector
+    private static final StreamKernel VECTOR_KERNEL = loadVectorKernel();
+    private StreamKernel kernel = VECTOR_KERNEL; // null = the scalar loop
+
+    // Index offset to the neighbor in each direction, per row parity ([0] = even rows, [1] = odd rows).
+    // Odd rows are shifted half a cell to the right, so the diagonal neighbors differ by parity.
+    private final int[][] offsets = new int[2][6];
+    // (dx,dy) of each direction per row parity, same order as the direction bits
+    static final int[][] DX = {{1, 0, -1, -1, -1, 0}, {1, 1, 0, -1, 0, 1}};
+    static final int[] DY = {0, -1, -1, 0, 1, 1};
 
     public LGCA(int width, int height) {
+        this(width, height, new Random().nextLong());
+    }
+
+    /** Same seed gives the same run. */
+    public LGCA(int width, int height, long seed) {
+        this(width, height, seed, 0, height);
+    }
+
+    /** Rows rowOffset to rowOffset + rows - 1 of a width x globalHeight lattice. */
+    LGCA(int width, int rows, long seed, int rowOffset, int globalHeight) {
         this.width = width;
-        this.height = height;
-        grid = new byte[height][width];
+        this.height = rows;
+        this.seed = seed;
+        this.rowOffset = rowOffset;
+        this.globalHeight = globalHeight;
+        grid = new byte[width * height];
+        nextGrid = new byte[width * height];
+        tilesX = (width + TILE_W - 1) / TILE_W;
+        tilesY = (height + TILE_H - 1) / TILE_H;
+        active = new boolean[tilesX * tilesY];
+        nextActive = new boolean[tilesX * tilesY];
+        work = new boolean[tilesX * tilesY];
+        inflowTiles = new boolean[tilesX * tilesY];
+        simpleTiles = new boolean[tilesX * tilesY];
+        wallDirs = new byte[width * height];
+        applyBoundaries();
 
-        nextGrid = new byte[height][width];
+        for (int p = 0; p < 2; p++) {
+            for (int d = 0; d < 6; d++) {
+                offsets[p][d] = DY[d] * width + DX[p][d];
+            }
+        }
     }
 
     /** Initialize grid with particles or walls. */
@@ -36,225 +130,954 @@ public class LGCA {
         // Example: clear grid and set border walls:
         for (int y = 0; y < height; y++) {
             for (int x = 0; x < width; x++) {
-//                grid[y][x] = 0;
-
-                if (x==0 || x==width-1 || y==0 || y==height-1) {
-                    grid[y][x] |= SOLID; // mark boundary as wall
-                    nextGrid[y][x] |= SOLID; // mark boundary as wall?
+                int gy = y + rowOffset;
+                if (!periodicX && (x==0 || x==width-1) || !periodicY && (gy==0 || gy==globalHeight-1)) {
+                    grid[y * width + x] |= SOLID; // mark boundary as wall
+                    nextGrid[y * width + x] |= SOLID;
                 }
             }
         }
 
         setWall();
+        if (obstacles != null) {
+            for (int y = 0; y < height; y++) {
+                for (int x = 0; x < width; x++) {
+                    if (obstacles.isSolid(x, y + rowOffset)) {
+                        grid[y * width + x] = SOLID;
+                        nextGrid[y * width + x] = SOLID;
+                    }
+                }
+            }
+        }
+        updateWalls();
         setup();
+
+        // RAND bits for the first collision
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                if ((grid[y * width + x] & SOLID) == 0 && (randomWord(seed, count, y + rowOffset, x >> 6) >>> x & 1) != 0)
+                    grid[y * width + x] |= RAND;
+            }
+        }
+        resetActivity();
     }
     public void setWall() {
-        for (int i = 300; i < 400; i++) { //200,300
-            grid[i][300] = SOLID;
-            nextGrid[i][300] = SOLID;
+        if (wallX < 0 || wallX >= width)
+            return;
+        for (int i = Math.max(0, wallFrom - rowOffset); i < Math.min(height, wallTo - rowOffset); i++) {
+            grid[i * width + wallX] = SOLID;
+            nextGrid[i * width + wallX] = SOLID;
+        }
+        updateWalls();
+    }
+
+    public void setObstacles(Obstacles obstacles) {
+        this.obstacles = obstacles;
+    }
+
+    /**
+     * Works out wallDirs and simpleTiles from the SOLID bits of grid. Has to run whenever walls change, which
+     * initialize(), setWall() and restore() do.
+     */
+    private void updateWalls() {
+        Arrays.fill(simpleTiles, true);
+        for (int y = 0; y < height; y++) {
+            int p = (y + rowOffset) & 1;
+            int[] off = offsets[p];
+            boolean edgeRow = y == 0 || y == height - 1;
+            for (int x = 0; x < width; x++) {
+                int i = y * width + x, dirs = 0;
+                if (!edgeRow && x > 0 && x < width - 1) {
+                    // all six neighbors are on the lattice, no wrapping or bounds to check
+                    for (int d = 0; d < 6; d++) {
+                        dirs |= (grid[i + off[d]] >> 6 & 1) << d; // SOLID is bit 6
+                    }
+                }
+                else {
+                    for (int d = 0; d < 6; d++) {
+                        int nx = x + DX[p][d], ny = y + DY[d];
+                        if (periodicX)
+                            nx = Math.floorMod(nx, width);
+                        if (periodicY)
+                            ny = Math.floorMod(ny, height);
+                        if (nx < 0 || nx >= width || ny < 0 || ny >= height || (grid[ny * width + nx] & SOLID) != 0)
+                            dirs |= 1 << d;
+                    }
+                }
+                wallDirs[i] = (byte) dirs;
+                if (dirs != 0 || (grid[i] & SOLID) != 0 || x <= 1 || x >= width - 2 || isEdgeRow(y))
+                    simpleTiles[y / TILE_H * tilesX + x / TILE_W] = false;
+            }
+        }
+    }
+
+    /** Where setWall() puts the wall, call before initialize(). An empty range means no wall. */
+    public void setWallSegment(int x, int fromRow, int toRow) {
+        wallX = x;
+        wallFrom = fromRow;
+        wallTo = toRow;
+    }
+
+    /** Inflow probabilities for the 6 directions, EAST to SOUTHEAST. */
+    public void setInflowWeights(double[] weights) {
+        inflowWeights = weights.clone();
+        inflowThresholds = inflowThresholds(inflowWeights);
+    }
+
+    public double[] getInflowWeights() {
+        return inflowWeights.clone();
+    }
+
+    /**
+     * What each edge does, call before initialize(). The default is an inflow on the left, an outflow on the right
+     * and walls at the top and bottom. The inflow weights are the same for every INFLOW edge, by absolute direction.
+     * PERIODIC has to be set on both opposite edges; top/bottom also needs an even height (odd rows are the shifted ones).
+     */
+    public void setBoundaries(Boundary left, Boundary right, Boundary top, Boundary bottom) {
+        if ((left == Boundary.PERIODIC) != (right == Boundary.PERIODIC) || (top == Boundary.PERIODIC) != (bottom == Boundary.PERIODIC))
+            throw new IllegalArgumentException("PERIODIC needs both opposite edges");
+        if (top == Boundary.PERIODIC && (globalHeight % 2 != 0 || height != globalHeight))
+            throw new IllegalArgumentException("PERIODIC top/bottom needs an even height and the whole lattice");
+        boundaries[LEFT] = left;
+        boundaries[RIGHT] = right;
+        boundaries[TOP] = top;
+        boundaries[BOTTOM] = bottom;
+        applyBoundaries();
+    }
+
+    /** Boundaries of the LEFT, RIGHT, TOP and BOTTOM edges. */
+    public Boundary[] getBoundaries() {
+        return boundaries.clone();
+    }
+
+    private void applyBoundaries() {
+        periodicX = boundaries[LEFT] == Boundary.PERIODIC;
+        periodicY = boundaries[TOP] == Boundary.PERIODIC;
+        outLeft = boundaries[LEFT] == Boundary.OUTFLOW;
+        outRight = boundaries[RIGHT] == Boundary.OUTFLOW;
+        outTop = boundaries[TOP] == Boundary.OUTFLOW;
+        outBottom = boundaries[BOTTOM] == Boundary.OUTFLOW;
+        inflowLeft = boundaries[LEFT] == Boundary.INFLOW;
+        inflowRight = boundaries[RIGHT] == Boundary.INFLOW;
+        inflowTop = boundaries[TOP] == Boundary.INFLOW;
+        inflowBottom = boundaries[BOTTOM] == Boundary.INFLOW;
+
+        // tiles along the inflow lines are streamed every step, see markWork()
+        Arrays.fill(inflowTiles, false);
+        for (int ty = 0; ty < tilesY; ty++) {
+            inflowTiles[ty * tilesX] |= inflowLeft;
+            inflowTiles[ty * tilesX + Math.max(0, width - 2) / TILE_W] |= inflowRight;
+        }
+        for (int tx = 0; tx < tilesX; tx++) {
+            int top = 1 - rowOffset, bottom = globalHeight - 2 - rowOffset; // local rows of the lines
+            if (inflowTop && top >= 0 && top < height)
+                inflowTiles[top / TILE_H * tilesX + tx] = true;
+            if (inflowBottom && bottom >= 0 && bottom < height)
+                inflowTiles[bottom / TILE_H * tilesX + tx] = true;
         }
     }
 
     public void setup(){
         //particles
-        for(int i = 1; i < height-1; i++){ //height-1
-            grid[i][1] = generateWeightedByte(new double[]{0.8,0.5,0.2,0.1,0.2,0.5});
+        for(int i = 0; i < height; i++){
+            inflowRow(grid, i, count, active);
         }
     }
 
-    public static byte generateWeightedByte(double[] weights) {
-        // weights should be of length 6 for the 6 particle bits (EAST to SOUTHEAST)
-        byte result = 0;
-        Random rand = new Random();
-
-        for (int i = 0; i < 6; i++) {
-            if (rand.nextDouble() < weights[i]) {
-                result |= (byte) (1 << i);
+    /**
+     * The inflow of local row y at the given step into cells: the cells next to the INFLOW edges get a new random
+     * set of particles (walls excepted). Marks their tiles in flags if a particle came in.
+     */
+    private void inflowRow(byte[] cells, int y, long step, boolean[] flags) {
+        int gy = y + rowOffset;
+        if (gy < 0 || gy >= globalHeight)
+            return; // ghost row of a strip
+        if (inflowLeft)
+            inflowCell(cells, 1, y, inflowByte(seed, step, LEFT, gy, inflowThresholds), flags);
+        if (inflowRight)
+            inflowCell(cells, width - 2, y, inflowByte(seed, step, RIGHT, gy, inflowThresholds), flags);
+        if (inflowTop && gy == 1) {
+            for (int x = 0; x < width; x++) {
+                inflowCell(cells, x, y, inflowByte(seed, step, TOP, x, inflowThresholds), flags);
+            }
+        }
+        if (inflowBottom && gy == globalHeight - 2) {
+            for (int x = 0; x < width; x++) {
+                inflowCell(cells, x, y, inflowByte(seed, step, BOTTOM, x, inflowThresholds), flags);
             }
         }
+    }
 
-        return result;
+    private void inflowCell(byte[] cells, int x, int y, byte in, boolean[] flags) {
+        int i = y * width + x;
+        if ((cells[i] & SOLID) != 0)
+            return;
+        cells[i] = (byte) ((cells[i] & RAND) | in);
+        if (in != 0 && flags != null)
+            flags[y / TILE_H * tilesX + x / TILE_W] = true;
+    }
+
+    private static final int INFLOW_BITS = 21; // resolution of the inflow probabilities, 3 directions per random word
+
+    /** Inflow weights scaled to INFLOW_BITS bit thresholds. */
+    static long[] inflowThresholds(double[] weights) {
+        long[] thresholds = new long[6];
+        for (int d = 0; d < 6; d++) {
+            thresholds[d] = Math.round(Math.min(1, Math.max(0, weights[d])) * (1L << INFLOW_BITS));
+        }
+        return thresholds;
+    }
+
+    /**
+     * Random inflow cell at position pos (the row, or the column for TOP and BOTTOM) of the given edge at the given
+     * step, direction d set with probability thresholds[d] / 2^21. Counter based like the RAND bits (on a separate
+     * stream of the seed), so it only depends on seed, step, edge and position, and allocates nothing.
+     */
+    static byte inflowByte(long seed, long step, int edge, int pos, long[] thresholds) {
+        long a = randomWord(~seed, step, pos, 2 * edge), b = randomWord(~seed, step, pos, 2 * edge + 1);
+        long mask = (1L << INFLOW_BITS) - 1;
+        int result = 0;
+
+        for (int d = 0; d < 6; d++) {
+            long bits = (d < 3 ? a >>> (INFLOW_BITS * d) : b >>> (INFLOW_BITS * (d - 3))) & mask;
+            if (bits < thresholds[d])
+                result |= 1 << d;
+        }
+        return (byte) result;
     }
 
     public void collision(){
-        // Collision step: compute nextGrid (temporarily reuse nextGrid)
-        for (int y = 0; y < height; y++) {
-            for (int x = 0; x < width; x++) {
-                
-                if ((grid[y][x] & SOLID) != 0) {
-                    //do nothing
-                } else { // Apply FHP collision rules to non-solid cell
-                    grid[y][x] = applyCollision(grid[y][x]);
+        collideRows(0, height);
+    }
+
+    /** Collision of rows y0 (inclusive) to y1 (exclusive), in place. */
+    private void collideRows(int y0, int y1) {
+        // Collision step: one table lookup per cell. Walls map to themselves, and the RAND bit written
+        // by the previous propagate() decides the rotation of two-body collisions.
+        // Tiles without particles are skipped, empty cells collide to themselves.
+        byte[] table = COLLISION;
+        for (int y = y0; y < y1; y++) {
+            int tileRow = y / TILE_H * tilesX;
+            for (int tx = 0; tx < tilesX; tx++) {
+                if (!active[tileRow + tx])
+                    continue;
+                for (int i = y * width + tx * TILE_W, end = y * width + Math.min(width, (tx + 1) * TILE_W); i < end; i++) {
+                    grid[i] = table[grid[i] & 0xFF];
                 }
             }
         }
     }
 
-    /** Apply FHP-I collision rules to a single cell's bits. */
-    //after this grid is before collision state, nextGrid is after collision state
-    private byte applyCollision(byte cell) {
+    /** Apply FHP-I collision rules to a single cell's bits. Used to build the COLLISION table. */
+    private static byte applyCollision(byte cell) {
+        if ((cell & SOLID) != 0)
+            return cell; // walls don't collide
+
+        byte rnd = (byte) (cell & RAND);
+        boolean left = rnd != 0; // rotate the pair counterclockwise if set, clockwise otherwise
+        cell &= PARTICLE_BITS;
+
         // Check each opposite pair:
-        if ((cell == oppEW)){ //(cell & oppEW) == oppEW && (cell & ~(oppEW)) == 0) { //bits in oppEW are 1, and others are 0
+        if (cell == oppEW) {
             // EAST + WEST present exclusively
-            cell = 0; //cell &= (byte) ~oppEW; // make 0     //grid is not changed here
-
-            if (rand.nextBoolean()) //use RAND bit of cell
-                cell |= (NORTHEAST|SOUTHWEST);
-            else
-                cell |= (NORTHWEST|SOUTHEAST);
-            return cell;
+            return (byte) (rnd | (left ? (NORTHEAST|SOUTHWEST) : (NORTHWEST|SOUTHEAST)));
         }
-        else if (cell == oppNESW){ //(cell & oppNESW) == oppNESW && (cell & ~(oppNESW)) == 0) {
+        else if (cell == oppNESW) {
             // NORTHEAST+SOUTHWEST
-            cell = 0; //&= ~oppNESW;
-
-            if (rand.nextBoolean())
-                cell |= (NORTHWEST|SOUTHEAST);
-            else
-                cell |= (EAST|WEST);
-            return cell;
+            return (byte) (rnd | (left ? (NORTHWEST|SOUTHEAST) : (EAST|WEST)));
         }
-        else if (cell == oppNWSE){ //(cell & oppNWSE) == oppNWSE && (cell & ~(oppNWSE)) == 0) {
+        else if (cell == oppNWSE) {
             // NORTHWEST+SOUTHEAST
-            cell = 0; //&= ~oppNWSE;
-
-            if (rand.nextBoolean())
-                cell |= (EAST|WEST);
-            else
-                cell |= (NORTHEAST|SOUTHWEST);
-            return cell;
+            return (byte) (rnd | (left ? (EAST|WEST) : (NORTHEAST|SOUTHWEST)));
         }
 
         //check 3-pair collisions
-        else if (cell == tri1){ //(cell & tri1) == tri1 && (cell & ~tri1) == 0) {
+        else if (cell == tri1) {
             // Case {0,2,4}
-            cell = 0; //&= ~tri1;
-
-            return tri2;
+            return (byte) (rnd | tri2);
         }
-        else if (cell == tri2){ //(cell & tri2) == tri2 && (cell & ~tri2) == 0) {
+        else if (cell == tri2) {
             // Case {1,3,5}
-            cell = 0; //&= ~tri2;
-
-//            cell |= tri1;
-
-            return tri1;
+            return (byte) (rnd | tri1);
         }
 
-        return cell; // no collisions
+        return (byte) (rnd | cell); // no collisions
     }
 
-    public void propagate(){
-        // Propagation step: move each bit to neighbor cell
-        // We'll write into grid (swap buffers afterwards)
-        for (int y = 0; y < height; y++) {
-            for (int x = 0; x < width; x++) {
-                byte cell = grid[y][x];
+    /**
+     * 64 random bits for the RAND bits of row y, columns 64*w to 64*w+63, used by the collision of the given step.
+     * Counter based (a hash of seed, step, row and word), so it costs nothing to share between threads and
+     * the same seed always gives the same bits, whatever order the lattice is visited in.
+     */
+    static long randomWord(long seed, long step, int y, int w) {
+        return mix64(seed + step * 0x9E3779B97F4A7C15L + y * 0xC2B2AE3D27D4EB4FL + w * 0x165667B19E3779F9L);
+    }
 
-                // For each direction bit in cell, move it:
-                if(y % 2 != 0) { //odd row
-                    if ((cell & EAST) != 0) //means that EAST bit is 1
-                        moveTo(x, y, EAST, 1, 0); //bit East of byte in location y+0 x+1 should be made 1
+    /** SplitMix64 finalizer. */
+    static long mix64(long z) {
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
 
-                    if ((cell & NORTHEAST) != 0)
-                        moveTo(x, y, NORTHEAST, 1, -1);
+    public void propagate(){
+        markWork();
+        streamRows(0, height, IDENTITY);
+        swap();
+    }
 
-                    if ((cell & NORTHWEST) != 0)
-                        moveTo(x, y, NORTHWEST, 0, -1);
+    /**
+     * Propagation of the rows y0 (inclusive) to y1 (exclusive) of nextGrid, in the tiles marked by markWork().
+     * Only those rows are written, so bands of whole tile rows can run at the same time.
+     * Every cell read from grid goes through table first: IDENTITY streams grid as it is, COLLISION
+     * collides each cell on the fly, which fuses collision() and propagate() into one pass that leaves grid untouched.
+     */
+    private void streamRows(int y0, int y1, byte[] table) {
+        streamRows(grid, nextGrid, count + 1, y0, y1, table, work, nextActive);
+    }
 
-                    if ((cell & WEST) != 0)
-                        moveTo(x, y, WEST, -1, 0);
+    /**
+     * The same from src into dst, writing the RAND bits for the collision of nextStep and, if flags isn't null,
+     * whether each visited tile of dst holds particles.
+     */
+    private void streamRows(byte[] grid, byte[] nextGrid, long nextStep, int y0, int y1, byte[] table, boolean[] work, boolean[] flags) {
+        // Propagation step, done as a gather: every cell of nextGrid pulls the particles heading into it
+        // from its six neighbors, plus its own particles that bounced off a wall. No clearing pass is needed
+        // since every cell of a visited tile is overwritten. The RAND bit for the next collision is set on the way.
+        // Tiles that aren't visited stay empty in nextGrid (markWork() visits any that weren't) and keep
+        // their old RAND bits, which is harmless: no particle can arrive there before the tile is visited again.
+        for (int y = y0; y < y1; y++) {
+            int[] off = offsets[(y + rowOffset) & 1];
+            int oE = off[0], oNE = off[1], oNW = off[2], oW = off[3], oSW = off[4], oSE = off[5];
+            int row = y * width;
+            boolean edgeRow = isEdgeRow(y);
+            int tileRow = y / TILE_H * tilesX;
+            if (y % TILE_H == 0 && flags != null) {
+                for (int t = tileRow; t < tileRow + tilesX; t++) {
+                    if (work[t])
+                        flags[t] = false;
+                }
+            }
 
-                    if ((cell & SOUTHWEST) != 0)
-                        moveTo(x, y, SOUTHWEST, 0, 1);
+            for (int tx = 0; tx < tilesX; tx++) {
+                if (!work[tileRow + tx])
+                    continue;
+                long bits = randomWord(seed, nextStep, y + rowOffset, tx);
+                int any = 0;
 
-                    if ((cell & SOUTHEAST) != 0)
-                        moveTo(x, y, SOUTHEAST, 1, 1);
+                if (simpleTiles[tileRow + tx] && kernel != null) {
+                    any = kernel.streamOpen(grid, nextGrid, row + tx * TILE_W, TILE_W, off, bits, table == COLLISION);
+                    if (any != 0 && flags != null)
+                        flags[tileRow + tx] = true;
+                    continue;
+                }
+                if (simpleTiles[tileRow + tx]) {
+                    // open water: no walls to check, every particle just moves on
+                    for (int x = tx * TILE_W, x1 = x + TILE_W; x < x1; x++) {
+                        int i = row + x;
+                        int in = (table[grid[i + oE] & 0xFF] & WEST) | (table[grid[i + oNE] & 0xFF] & SOUTHWEST)
+                                | (table[grid[i + oNW] & 0xFF] & SOUTHEAST) | (table[grid[i + oW] & 0xFF] & EAST)
+                                | (table[grid[i + oSW] & 0xFF] & NORTHEAST) | (table[grid[i + oSE] & 0xFF] & NORTHWEST);
+                        nextGrid[i] = (byte) (((bits >>> x) << 7) | in);
+                        any |= in;
+                    }
+                    if (any != 0 && flags != null)
+                        flags[tileRow + tx] = true;
+                    continue;
                 }
-                else{ //even row
-                    if ((cell & EAST) != 0)
-                        moveTo(x, y, EAST, 1, 0);
 
-                    if ((cell & NORTHEAST) != 0)
-                        moveTo(x, y, NORTHEAST, 0, -1);
+                for (int x = tx * TILE_W, x1 = Math.min(width, x + TILE_W); x < x1; x++) {
+                    int i = row + x;
+                    byte cell = table[grid[i] & 0xFF];
+                    byte rnd = (byte) ((bits >>> x) << 7); // bit x of the word (shift distance is taken mod 64)
 
-                    if ((cell & NORTHWEST) != 0)
-                        moveTo(x, y, NORTHWEST, -1, -1);
+                    if ((cell & SOLID) != 0) {
+                        nextGrid[i] = SOLID; // walls hold no particles
+                    }
+                    else if (edgeRow || x <= 1 || x >= width - 2) {
+                        byte in = pullEdge(grid, x, y, table); // neighbors may be out of bounds, across an edge or on an outflow edge
+                        nextGrid[i] = (byte) (rnd | in);
+                        any |= in;
+                    }
+                    else {
+                        int nE = table[grid[i + oE] & 0xFF], nNE = table[grid[i + oNE] & 0xFF];
+                        int nNW = table[grid[i + oNW] & 0xFF], nW = table[grid[i + oW] & 0xFF];
+                        int nSW = table[grid[i + oSW] & 0xFF], nSE = table[grid[i + oSE] & 0xFF];
 
-                    if ((cell & WEST) != 0)
-                        moveTo(x, y, WEST, -1, 0);
+                        // particles in the neighbors moving towards us
+                        int in = (nE & WEST) | (nNE & SOUTHWEST) | (nNW & SOUTHEAST)
+                                | (nW & EAST) | (nSW & NORTHEAST) | (nSE & NORTHWEST);
+                        // our own particles moving into a wall bounce back
+                        in |= REFLECTIONS[cell & wallDirs[i]];
 
-                    if ((cell & SOUTHWEST) != 0)
-                        moveTo(x, y, SOUTHWEST, -1, 1);
+                        nextGrid[i] = (byte) (rnd | in);
+                        any |= in;
+                    }
+                }
+                if (any != 0 && flags != null)
+                    flags[tileRow + tx] = true;
+            }
+        }
+    }
 
-                    if ((cell & SOUTHEAST) != 0)
-                        moveTo(x, y, SOUTHEAST, 0, 1);
+    /**
+     * Picks the tiles the coming propagation visits: every tile with particles in it or in one of its 8 neighbor
+     * tiles (across periodic edges too), tiles of nextGrid that still hold particles from an earlier step (they have
+     * to be emptied), and the inflow lines, whose RAND bits setup() relies on. Everything when skipEmptyTiles is off.
+     */
+    private void markWork() {
+        for (int ty = 0; ty < tilesY; ty++) {
+            for (int tx = 0; tx < tilesX; tx++) {
+                boolean w = !skipEmptyTiles || inflowTiles[ty * tilesX + tx] || nextActive[ty * tilesX + tx];
+                for (int dy = -1; dy <= 1 && !w; dy++) {
+                    int ny = periodicY ? Math.floorMod(ty + dy, tilesY) : ty + dy;
+                    if (ny < 0 || ny >= tilesY)
+                        continue;
+                    for (int dx = -1; dx <= 1; dx++) {
+                        int nx = periodicX ? Math.floorMod(tx + dx, tilesX) : tx + dx;
+                        if (nx >= 0 && nx < tilesX)
+                            w |= active[ny * tilesX + nx];
+                    }
                 }
+                work[ty * tilesX + tx] = w;
+            }
+        }
+    }
 
-                // Only keep the solid wall bit(s), clear the particles
-                grid[y][x] &= (byte) ~PARTICLE_BITS;                        //should work but doesn't
+    /** Recomputes the activity of grid after it was changed from outside, and makes nextGrid a copy of it. */
+    private void resetActivity() {
+        System.arraycopy(grid, 0, nextGrid, 0, grid.length);
+        for (int ty = 0; ty < tilesY; ty++) {
+            for (int tx = 0; tx < tilesX; tx++) {
+                boolean any = false;
+                for (int y = ty * TILE_H; y < Math.min(height, (ty + 1) * TILE_H) && !any; y++) {
+                    for (int i = y * width + tx * TILE_W, end = y * width + Math.min(width, (tx + 1) * TILE_W); i < end; i++) {
+                        if ((grid[i] & PARTICLE_BITS) != 0 && (grid[i] & SOLID) == 0) {
+                            any = true;
+                            break;
+                        }
+                    }
+                }
+                active[ty * tilesX + tx] = any;
+                nextActive[ty * tilesX + tx] = any;
             }
         }
+    }
+
+    /**
+     * Whether step() skips tiles that have no particles in or next to them (default on). Gives the same particles
+     * either way; only the RAND bits of empty cells, which no collision ever reads, can differ.
+     */
+    public void setSkipEmptyTiles(boolean skip) {
+        skipEmptyTiles = skip;
+    }
+
+    public boolean getSkipEmptyTiles() {
+        return skipEmptyTiles;
+    }
+
+    private static StreamKernel loadVectorKernel() {
+        try {
+            return (StreamKernel) Class.forName("VectorStreamKernel").getDeclaredConstructor().newInstance();
+        }
+        catch (ReflectiveOperationException | LinkageError | UnsupportedOperationException e) {
+            return null; // not built, or running without --add-modules jdk.incubator.vector
+        }
+    }
+
+    /** Whether the Vector API kernel could be loaded (src-vector built and --add-modules jdk.incubator.vector given). */
+    public static boolean isVectorAvailable() {
+        return VECTOR_KERNEL != null;
+    }
+
+    /** Stream the open tiles with the Vector API kernel if it is available (the default) or with the scalar loop. Same results. */
+    public void setVectorized(boolean vectorized) {
+        kernel = vectorized ? VECTOR_KERNEL : null;
+    }
+
+    public boolean isVectorized() {
+        return kernel != null;
+    }
+
+    /** Number of tiles that may hold particles, out of getTileCount(). */
+    public int getActiveTiles() {
+        int n = 0;
+        for (boolean a : active) {
+            if (a)
+                n++;
+        }
+        return n;
+    }
 
-        // After moving all particles, swap buffers - could also do ping-pong buffering (double buffering)
-        byte[][] temp = grid;
+    public int getTileCount() {
+        return active.length;
+    }
+
+    private void swap() {
+        // swap buffers (double buffering)
+        byte[] temp = grid;
         grid = nextGrid;
         nextGrid = temp;
+        boolean[] a = active;
+        active = nextActive;
+        nextActive = a;
     }
 
-    /** Move a particle in direction (dx,dy) or reflect if hitting a wall. */
-    private void moveTo(int x, int y, int dirBit, int dx, int dy) {
-        int nx = x + dx, ny = y + dy;
+    /** Slow path of propagate() for fluid cells near the lattice edges, with bounds, wrap-around and outflow checks. */
+    private byte pullEdge(byte[] grid, int x, int y, byte[] table) {
+        int p = (y + rowOffset) & 1; // odd global rows are the shifted ones
+        byte cell = table[grid[y * width + x] & 0xFF];
+        int in = 0;
+        boolean sink = inSink(x, y);
 
-//         If out of bounds or target is solid, reflect:
-        if(nx >= width -1 ){ //right wall
-            nextGrid[y][x] &= (byte) ~dirBit;
-//            System.out.println(1);
-        }
-        else if (nx < 0 || ny < 0 || ny >= height || (grid[ny][nx] & SOLID) != 0) {
-            // reflect: set opposite direction in original cell
-//            int oppositeBit = 1 << ((Integer.numberOfTrailingZeros(dirBit) + 3) % 6);
-//            nextGrid[y][x] |= (byte) oppositeBit;
-            int reflected = getReflectedDirection(dirBit);
-            nextGrid[y][x] |= (byte) reflected;
-        } else {
-            // propagate to neighbor (in next grid state)
-            nextGrid[ny][nx] |= (byte) dirBit;
+        for (int d = 0; d < 6; d++) {
+            int nx = x + DX[p][d], ny = y + DY[d];
+            if (periodicX)
+                nx = Math.floorMod(nx, width);
+            if (periodicY)
+                ny = Math.floorMod(ny, height);
+            boolean inside = nx >= 0 && nx < width && ny >= 0 && ny < height;
+
+            // our own particle: an outflow edge swallows it, otherwise it bounces back if out of bounds or solid
+            if ((cell & (1 << d)) != 0 && !inSink(nx, ny)) {
+                if (!inside || (grid[ny * width + nx] & SOLID) != 0) // collisions keep SOLID, no need for table
+                    in |= REFLECTED[d];
+            }
+            // particle in the neighbor moving towards us, unless we are on an outflow edge
+            if (inside && !sink) {
+                in |= table[grid[ny * width + nx] & 0xFF] & OPPOSITE[d];
+            }
         }
+        return (byte) in;
+    }
 
-        //instead of this, could clear all 6bits in the method above
-//        grid[y][x] &= (byte) ~dirBit; //clears specified direction of byte after propagating it. grid should be empty after propagation, only SOLID, RAND bits should be alive
+    /**
+     * Whether local row y needs the slow path of pullEdge(): next to the end of this grid, or next to the end of
+     * the lattice, which in a strip can be further in (an OUTFLOW row there swallows what the fast path would
+     * bounce back).
+     */
+    private boolean isEdgeRow(int y) {
+        int gy = y + rowOffset;
+        return y <= 1 || y >= height - 2 || gy <= 1 || gy >= globalHeight - 2;
     }
 
-    private int getReflectedDirection(int dirBit) {
-        switch (dirBit) {
-            case EAST:        return WEST;         // East reflects to West
-            case NORTHEAST:   return SOUTHEAST;    // Northeast reflects to Southwest
-            case NORTHWEST:   return SOUTHWEST;    // Northwest reflects to Southeast
-            case WEST:        return EAST;         // West reflects to East
-            case SOUTHWEST:   return NORTHWEST;    // Southwest reflects to Northeast
-            case SOUTHEAST:   return NORTHEAST;    // Southeast reflects to Northwest
-            default:          return 0;
+    /** Whether local cell (x, y) is on or beyond an OUTFLOW edge. */
+    private boolean inSink(int x, int y) {
+        int gy = y + rowOffset;
+        return outRight && x >= width - 1 || outLeft && x <= 0 || outTop && gy <= 0 || outBottom && gy >= globalHeight - 1;
+    }
+
+    // Bit of the particle travelling opposite to each direction, i.e. towards us from the neighbor in that direction
+    private static final byte[] OPPOSITE = {WEST, SOUTHWEST, SOUTHEAST, EAST, NORTHEAST, NORTHWEST};
+    // Reflected bits for every set of particles (bits 0-5) that hit a wall, built from REFLECTED
+    private static final byte[] REFLECTIONS = new byte[64];
+    // Direction a particle takes after hitting a wall: bounce-back, it goes back the way it came (d -> d+3 mod 6).
+    // Works for walls of any orientation; a mirror in y only would keep particles bouncing along a vertical wall.
+    static final byte[] REFLECTED = {
+            WEST,         // East bounces back to West
+            SOUTHWEST,    // Northeast bounces back to Southwest
+            SOUTHEAST,    // Northwest bounces back to Southeast
+            EAST,         // West bounces back to East
+            NORTHEAST,    // Southwest bounces back to Northeast
+            NORTHWEST     // Southeast bounces back to Northwest
+    };
+    static {
+        for (int s = 0; s < 64; s++) {
+            for (int d = 0; d < 6; d++) {
+                if ((s & (1 << d)) != 0)
+                    REFLECTIONS[s] |= REFLECTED[d];
+            }
         }
     }
 
-    /** Perform one time step: collision and propagation. */
+    /**
+     * Perform one time step: collision and propagation, fused into a single pass over the lattice.
+     * Gives exactly the same lattice as calling collision() and then propagate().
+     */
     public void step() {
-        collision();
-        propagate();
+        if (metrics != null) {
+            measuredStep();
+            return;
+        }
+        markWork();
+        forRows(fusedRows);
+        swap();
         count++;
         //how often particles come in
         setup();
+
+        if (field != null)
+            updateField();
+    }
+
+    /**
+     * Performs n steps, the same as calling step() n times. With setTimeBlock(k), k > 1, runs up to k steps per sweep
+     * over the lattice (see stepBlock()), unless a coarse field or metrics are attached, which have to see every step.
+     */
+    public void step(int n) {
+        while (n > 0) {
+            int k = Math.min(Math.min(timeBlock, n), maxTimeBlock());
+            if (k > 1 && field == null && metrics == null) {
+                stepBlock(k);
+                n -= k;
+            }
+            else {
+                step();
+                n--;
+            }
+        }
+    }
+
+    /**
+     * Steps per sweep in step(n) (1 = a sweep per step, at most TILE_H). Blocking pays off when the lattice is much
+     * bigger than the cache: the rows touched while the wavefront passes are about 4*k*width bytes, which should fit in L2.
+     */
+    public void setTimeBlock(int k) {
+        timeBlock = Math.max(1, Math.min(TILE_H, k));
+    }
+
+    public int getTimeBlock() {
+        return timeBlock;
+    }
+
+    /**
+     * Longest block the boundaries allow: the wavefront can't go around periodic top/bottom edges, and across periodic
+     * left/right edges a particle must not get through a narrow last tile column into the next one within a block.
+     */
+    private int maxTimeBlock() {
+        if (periodicY)
+            return 1;
+        return periodicX && width % TILE_W != 0 ? Math.min(TILE_H, width % TILE_W) : TILE_H;
+    }
+
+    /**
+     * k fused steps in a single sweep, as a wavefront going down the rows (temporal blocking). At wavefront position y,
+     * step j of the block (1 to k) produces row y - 2(j-1). That needs rows up to y - 2(j-1) + 1 of step j-1, which the
+     * wavefront produced one position earlier, and it overwrites the row of step j-2 that no row of step j-1 still has
+     * to read. So the two buffers are enough, every row is loaded from memory once per block instead of once per step,
+     * and the k rows of one position don't depend on each other, so they run in parallel on the pool.
+     * The tiles visited are those of markWork() for the whole block: in k <= TILE_H steps no particle gets further
+     * than the neighbor tiles. The last two steps of the block rebuild the activity flags of both buffers.
+     */
+    private void stepBlock(int k) {
+        markWork();
+        for (int y = 0; y < height + 2 * (k - 1); y++) {
+            if (pool != null) {
+                pool.invoke(new Wavefront(y, 1, k + 1, k));
+            }
+            else {
+                for (int j = 1; j <= k; j++) {
+                    blockRow(y, j, k);
+                }
+            }
+        }
+        // odd steps go from grid to nextGrid, even ones back
+        if (k % 2 == 1)
+            swap();
+        count += k;
+    }
+
+    /** Row y - 2(j-1) of step j of a block of k steps, with its inflow. */
+    private void blockRow(int y, int j, int k) {
+        int r = y - 2 * (j - 1);
+        if (r < 0 || r >= height)
+            return;
+        boolean odd = (j & 1) == 1;
+        byte[] src = odd ? grid : nextGrid, dst = odd ? nextGrid : grid;
+        boolean[] flags = j < k - 1 ? null : odd ? nextActive : active; // earlier steps get overwritten anyway
+        long step = count + j;
+        streamRows(src, dst, step, r, r + 1, COLLISION, work, flags);
+        inflowRow(dst, r, step, flags);
+    }
+
+    /** Steps j0 (inclusive) to j1 (exclusive) of one wavefront position of stepBlock(). */
+    private class Wavefront extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+        final int y, j0, j1, k;
+
+        Wavefront(int y, int j0, int j1, int k) {
+            this.y = y;
+            this.j0 = j0;
+            this.j1 = j1;
+            this.k = k;
+        }
+
+        @Override
+        protected void compute() {
+            if (j1 - j0 > 1) {
+                int mid = (j0 + j1) >>> 1;
+                invokeAll(new Wavefront(y, j0, mid, k), new Wavefront(y, mid, j1, k));
+            }
+            else {
+                blockRow(y, j0, k);
+            }
+        }
+    }
+
+    private final RowTask fusedRows = (y0, y1) -> streamRows(y0, y1, COLLISION);
+    private final RowTask collideRows = this::collideRows;
+    private final RowTask streamRows = (y0, y1) -> streamRows(y0, y1, IDENTITY);
+
+    /** Runs task over all rows, split into bands of whole tile rows on the pool if there is one. */
+    private void forRows(RowTask task) {
+        if (pool != null)
+            pool.invoke(new Band(0, tilesY, task));
+        else
+            task.run(0, height);
+    }
+
+    /**
+     * step() with metrics attached: collision and propagation as separate passes (same result as the fused pass)
+     * so each phase can be timed, plus the counters and conservation checks on the steps the metrics sample.
+     */
+    private void measuredStep() {
+        LGCAMetrics.Sample sample = metrics.sample(count);
+
+        if (sample != null)
+            measureContents(sample.before, sample);
+        long t0 = System.nanoTime();
+        forRows(collideRows);
+        long t1 = System.nanoTime();
+        if (sample != null) {
+            measureContents(sample.afterCollision, null);
+            measureTransport(sample);
+        }
+        long t2 = System.nanoTime();
+        markWork();
+        forRows(streamRows);
+        swap();
+        long t3 = System.nanoTime();
+        if (sample != null)
+            measureContents(sample.afterPropagation, null);
+
+        count++;
+        long t4 = System.nanoTime();
+        setup();
+        long t5 = System.nanoTime();
+
+        if (field != null)
+            updateField();
+        metrics.record(t1 - t0, t3 - t2, t5 - t4, sample);
+    }
+
+    /** Particle count and momentum of the lattice into totals; with sample, also counts the coming collisions by type. */
+    private void measureContents(long[] totals, LGCAMetrics.Sample sample) {
+        long mass = 0, mx = 0, my = 0, twoBody = 0, threeBody = 0;
+        for (byte b : grid) {
+            int cell = b & 0xFF;
+            mass += CoarseField.MASS[cell];
+            mx += CoarseField.MX[cell];
+            my += CoarseField.MY[cell];
+            if (sample != null) {
+                int p = cell & (SOLID | PARTICLE_BITS); // solid cells never match
+                if (p == oppEW || p == oppNESW || p == oppNWSE)
+                    twoBody++;
+                else if (p == tri1 || p == tri2)
+                    threeBody++;
+            }
+        }
+        totals[0] = mass;
+        totals[1] = mx;
+        totals[2] = my;
+        if (sample != null) {
+            sample.twoBody = twoBody;
+            sample.threeBody = threeBody;
+        }
+    }
+
+    /** Counts the particles about to bounce off a wall and about to leave through an outflow edge. */
+    private void measureTransport(LGCAMetrics.Sample sample) {
+        long bounces = 0, outflow = 0;
+        for (int y = 0; y < height; y++) {
+            int[] off = offsets[(y + rowOffset) & 1];
+            boolean edgeRow = isEdgeRow(y);
+            for (int x = 0; x < width; x++) {
+                int i = y * width + x;
+                int cell = grid[i];
+                if ((cell & SOLID) != 0 || (cell & PARTICLE_BITS) == 0)
+                    continue;
+
+                for (int d = 0; d < 6; d++) {
+                    if ((cell & (1 << d)) == 0)
+                        continue;
+                    if (!edgeRow && x > 1 && x < width - 2) {
+                        if ((grid[i + off[d]] & SOLID) != 0)
+                            bounces++;
+                        continue;
+                    }
+                    int nx = x + DX[(y + rowOffset) & 1][d], ny = y + DY[d];
+                    if (periodicX)
+                        nx = Math.floorMod(nx, width);
+                    if (periodicY)
+                        ny = Math.floorMod(ny, height);
+                    if (inSink(nx, ny))
+                        outflow++;
+                    else if (nx < 0 || nx >= width || ny < 0 || ny >= height || (grid[ny * width + nx] & SOLID) != 0)
+                        bounces++;
+                }
+            }
+        }
+        sample.wallBounces = bounces;
+        sample.outflow = outflow;
+    }
+
+    /**
+     * Collect per-phase timings, collision/bounce counters and conservation checks from now on (null to stop).
+     * Without metrics step() runs the fused pass and pays nothing for this.
+     */
+    public void setMetrics(LGCAMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    public LGCAMetrics getMetrics() {
+        return metrics;
+    }
+
+    /** Adds the lattice to the coarse field, block rows in parallel when there is a pool. */
+    private void updateField() {
+        if (pool != null)
+            pool.submit(() -> IntStream.range(0, field.getBlocksY()).parallel()
+                    .forEach(by -> field.accumulateRows(grid, by, by + 1))).join();
+        else
+            field.accumulateRows(grid, 0, field.getBlocksY());
+        field.advance();
+    }
+
+    /**
+     * Keep a coarse-grained density/momentum field up to date, one update after every step (null to stop).
+     * The field must have the size of this lattice.
+     */
+    public void setCoarseField(CoarseField field) {
+        this.field = field;
+    }
+
+    public CoarseField getCoarseField() {
+        return field;
+    }
+
+    /**
+     * Step on a fork-join pool of n threads, splitting the lattice into bands of rows (1 = serial).
+     * Bands don't need locking: the fused step gathers, so every band writes only its own rows of nextGrid
+     * and only reads grid (with metrics attached, collision runs as its own phase, in place on the band's rows). The random bits are a function of seed, step and row,
+     * so every band has its own stream and a run is bit-identical whatever the number of threads.
+     */
+    public void setThreads(int n) {
+        if (pool != null)
+            pool.shutdown();
+        threads = Math.max(1, n);
+        pool = threads > 1 ? new ForkJoinPool(threads) : null;
+    }
+
+    public int getThreads() {
+        return threads;
+    }
+
+    /** Work on the rows y0 (inclusive) to y1 (exclusive). */
+    private interface RowTask {
+        void run(int y0, int y1);
+    }
+
+    /**
+     * A band of tile rows ty0 (inclusive) to ty1 (exclusive), split in two until it is small enough for one thread's share.
+     * Whole tile rows, so that each tile's activity flag is written by one band only.
+     */
+    private class Band extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+        final int ty0, ty1;
+        final RowTask task;
+
+        Band(int ty0, int ty1, RowTask task) {
+            this.ty0 = ty0;
+            this.ty1 = ty1;
+            this.task = task;
+        }
+
+        @Override
+        protected void compute() {
+            if ((ty1 - ty0) * threads > tilesY && ty1 - ty0 > 1) {
+                int mid = (ty0 + ty1) >>> 1;
+                invokeAll(new Band(ty0, mid, task), new Band(mid, ty1, task));
+            }
+            else {
+                task.run(ty0 * TILE_H, Math.min(height, ty1 * TILE_H));
+            }
+        }
     }
 
     public int getCount(){
         return count;
     }
 
-    /** Returns the current grid (for visualization). */
-    public byte[][] getGrid() {
+    /**
+     * Replaces the lattice and step count, e.g. from a checkpoint. cells is row-major with RAND bits as written by
+     * the engine; since all randomness is a function of seed, step and position, stepping on gives the same run
+     * as if it had never stopped.
+     */
+    void restore(int count, byte[] cells) {
+        if (cells.length != grid.length)
+            throw new IllegalArgumentException("Expected " + grid.length + " cells, got " + cells.length);
+        System.arraycopy(cells, 0, grid, 0, cells.length);
+        this.count = count;
+        updateWalls();
+        resetActivity();
+    }
+
+    /**
+     * Makes this strip rows rowOffset to rowOffset + getHeight() - 1 of its lattice at the given step, after
+     * getCells() was overwritten with them (walls included, rows outside the lattice empty).
+     */
+    void rebase(int rowOffset, int count) {
+        this.rowOffset = rowOffset;
+        this.count = count;
+        applyBoundaries(); // the top/bottom inflow lines go by global row
+        updateWalls();
+        resetActivity();
+    }
+
+    public long getSeed() {
+        return seed;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    /** Returns the raw flat lattice (row-major, index y*width + x). Don't hold on to it across steps. */
+    public byte[] getCells() {
         return grid;
     }
 
+    public void copyCells(byte[] dst) {
+        System.arraycopy(grid, 0, dst, 0, grid.length);
+    }
+
+    /** Copies rows y to y + rows - 1 into dst at off. */
+    void copyRows(int y, int rows, byte[] dst, int off) {
+        System.arraycopy(grid, y * width, dst, off, rows * width);
+    }
+
+    /** Overwrites rows y to y + rows - 1 from src at off, e.g. with the halo rows of a neighboring strip. */
+    void setRows(int y, int rows, byte[] src, int off) {
+        System.arraycopy(src, off, grid, y * width, rows * width);
+        for (int i = y * width; i < (y + rows) * width; i++) {
+            if ((grid[i] & PARTICLE_BITS) != 0 && (grid[i] & SOLID) == 0)
+                active[i / width / TILE_H * tilesX + i % width / TILE_W] = true;
+        }
+    }
+
+    /** Returns a copy of the current grid as [y][x] (for visualization). The arrays are reused between calls. */
+    public byte[][] getGrid() {
+        if (gridView == null)
+            gridView = new byte[height][width];
+        for (int y = 0; y < height; y++) {
+            System.arraycopy(grid, y * width, gridView[y], 0, width);
+        }
+        return gridView;
+    }
+
 }
 
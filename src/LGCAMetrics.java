@@ -0,0 +1,188 @@
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Counters of an LGCA run, see LGCA.setMetrics(). Phase timings are taken on every step; particle counts,
+ * collisions by type, wall bounces, outflow and the conservation checks cost a few extra passes over the
+ * lattice, so they are only taken every sampleEvery-th step.
+ *
+ * Written by the stepping thread only, readable from anywhere (JMX, the log line).
+ */
+public class LGCAMetrics implements LGCAMetricsMBean {
+    private static final int BUCKETS = 32;
+
+    /** What the lattice looked like during one sampled step, filled in by LGCA. */
+    static class Sample {
+        final long[] before = new long[3];           // particles, momentum x, momentum y (CoarseField units)
+        final long[] afterCollision = new long[3];
+        final long[] afterPropagation = new long[3];
+        long twoBody, threeBody, wallBounces, outflow;
+    }
+
+    private final int sampleEvery;
+    private final Sample sample = new Sample();
+
+    private volatile long steps, collisionNanos, propagateNanos, setupNanos;
+    private volatile long sampledSteps, twoBody, threeBody, wallBounces, outflow, particles, particlesLost, violations;
+    private final AtomicLongArray histogram = new AtomicLongArray(BUCKETS);
+
+    private ObjectName registeredAs;
+    private ScheduledExecutorService logger;
+
+    public LGCAMetrics() {
+        this(1);
+    }
+
+    /** Measure the counters on every sampleEvery-th step. */
+    public LGCAMetrics(int sampleEvery) {
+        this.sampleEvery = Math.max(1, sampleEvery);
+    }
+
+    /** The sample to fill for this step, or null if the step isn't sampled. */
+    Sample sample(int step) {
+        return step % sampleEvery == 0 ? sample : null;
+    }
+
+    void record(long collision, long propagate, long setup, Sample s) {
+        collisionNanos += collision;
+        propagateNanos += propagate;
+        setupNanos += setup;
+        long micros = (collision + propagate + setup) / 1000;
+        histogram.incrementAndGet(Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(micros)));
+        steps++;
+
+        if (s == null)
+            return;
+        sampledSteps++;
+        twoBody += s.twoBody;
+        threeBody += s.threeBody;
+        wallBounces += s.wallBounces;
+        outflow += s.outflow;
+        particles = s.afterPropagation[0];
+
+        long lost = s.afterCollision[0] - s.outflow - s.afterPropagation[0];
+        particlesLost += lost;
+        boolean collisionConserves = s.before[0] == s.afterCollision[0] && s.before[1] == s.afterCollision[1]
+                && s.before[2] == s.afterCollision[2];
+        if (!collisionConserves)
+            violations++;
+    }
+
+    public long getSteps() {
+        return steps;
+    }
+
+    public long getCollisionNanos() {
+        return collisionNanos;
+    }
+
+    public long getPropagateNanos() {
+        return propagateNanos;
+    }
+
+    public long getSetupNanos() {
+        return setupNanos;
+    }
+
+    public double getMeanStepMicros() {
+        long n = steps;
+        return n == 0 ? 0 : (collisionNanos + propagateNanos + setupNanos) / 1000.0 / n;
+    }
+
+    public long[] getStepTimeHistogram() {
+        long[] h = new long[BUCKETS];
+        for (int i = 0; i < BUCKETS; i++) {
+            h[i] = histogram.get(i);
+        }
+        return h;
+    }
+
+    public long getSampledSteps() {
+        return sampledSteps;
+    }
+
+    public long getTwoBodyCollisions() {
+        return twoBody;
+    }
+
+    public long getThreeBodyCollisions() {
+        return threeBody;
+    }
+
+    public long getWallBounces() {
+        return wallBounces;
+    }
+
+    public long getOutflow() {
+        return outflow;
+    }
+
+    public long getParticles() {
+        return particles;
+    }
+
+    public long getParticlesLost() {
+        return particlesLost;
+    }
+
+    public long getConservationViolations() {
+        return violations;
+    }
+
+    /** Zeroes all counters. Only call it when nothing is stepping, or expect a step to be half counted. */
+    public void reset() {
+        steps = collisionNanos = propagateNanos = setupNanos = 0;
+        sampledSteps = twoBody = threeBody = wallBounces = outflow = particles = particlesLost = violations = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            histogram.set(i, 0);
+        }
+    }
+
+    /** One line with the totals. */
+    public String summary() {
+        long n = Math.max(1, steps), sampled = Math.max(1, sampledSteps);
+        return String.format("steps %d, %.1f us/step (collision %.1f, propagate %.1f, setup %.1f), per step: "
+                        + "%d two-body, %d three-body, %d wall bounces, %d outflow, %d particles, lost %d, violations %d",
+                steps, getMeanStepMicros(), collisionNanos / 1e3 / n, propagateNanos / 1e3 / n, setupNanos / 1e3 / n,
+                twoBody / sampled, threeBody / sampled, wallBounces / sampled, outflow / sampled, particles,
+                particlesLost, violations);
+    }
+
+    /** Registers as lgca:type=LGCAMetrics,name=name on the platform MBean server. */
+    public void register(String name) throws JMException {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        registeredAs = new ObjectName("lgca:type=LGCAMetrics,name=" + ObjectName.quote(name));
+        server.registerMBean(this, registeredAs);
+    }
+
+    public void unregister() throws JMException {
+        if (registeredAs != null) {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(registeredAs);
+            registeredAs = null;
+        }
+    }
+
+    /** Prints summary() every periodSeconds on a daemon thread. */
+    public void startLogging(long periodSeconds) {
+        stopLogging();
+        logger = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "lgca-metrics-log");
+            t.setDaemon(true);
+            return t;
+        });
+        logger.scheduleAtFixedRate(() -> System.out.println("[lgca] " + summary()), periodSeconds, periodSeconds, TimeUnit.SECONDS);
+    }
+
+    public void stopLogging() {
+        if (logger != null) {
+            logger.shutdown();
+            logger = null;
+        }
+    }
+}
@@ -0,0 +1,37 @@
+/** JMX view of LGCAMetrics. Times are totals in nanoseconds unless the name says otherwise. */
+public interface LGCAMetricsMBean {
+    long getSteps();
+
+    long getCollisionNanos();
+
+    long getPropagateNanos();
+
+    long getSetupNanos();
+
+    double getMeanStepMicros();
+
+    /** Steps per power-of-two bucket of step time: bucket i holds steps taking [2^(i-1), 2^i) microseconds. */
+    long[] getStepTimeHistogram();
+
+    /** Steps the counters below were measured on (every sampleEvery-th step). */
+    long getSampledSteps();
+
+    long getTwoBodyCollisions();
+
+    long getThreeBodyCollisions();
+
+    long getWallBounces();
+
+    long getOutflow();
+
+    /** Particles in the lattice after propagation on the last sampled step (before the inflow). */
+    long getParticles();
+
+    /** Particles that vanished in propagation for another reason than the outflow, e.g. two landing on the same bit. */
+    long getParticlesLost();
+
+    /** Sampled steps where collision changed particle number or momentum; should stay 0. */
+    long getConservationViolations();
+
+    void reset();
+}
@@ -0,0 +1,34 @@
+/** What the visualizers need from a lattice gas engine. Implemented by LGCA, BitPlaneLGCA and OffHeapLGCA. */
+public interface Lattice {
+    /** Where initialize() puts the obstacle wall: column x, rows fromRow to toRow (exclusive). */
+    void setWallSegment(int x, int fromRow, int toRow);
+
+    /** Solid cells initialize() adds to the walls, null for none. Cells outside the lattice are ignored. */
+    void setObstacles(Obstacles obstacles);
+
+    /** Inflow probabilities for the 6 directions, EAST to SOUTHEAST. */
+    void setInflowWeights(double[] weights);
+
+    /** Set up walls and the first inflow. */
+    void initialize();
+
+    /** Perform one time step: collision and propagation. */
+    void step();
+
+    int getCount();
+
+    int getWidth();
+
+    int getHeight();
+
+    /** Returns the current grid as [y][x] cell bytes, same bit layout as LGCA. */
+    byte[][] getGrid();
+
+    /** Coarse-grained field the engine updates every step, or null if there is none. */
+    default CoarseField getCoarseField() {
+        return null;
+    }
+
+    /** Copies the current lattice into dst, row-major (index y*width + x), same bit layout as LGCA. */
+    void copyCells(byte[] dst);
+}
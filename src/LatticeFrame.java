@@ -0,0 +1,54 @@
+/** A copy of the lattice at one step, handed from the simulation thread to the renderer. Recycled, never shared. */
+public class LatticeFrame {
+    final int width, height;
+    final byte[] cells; // row-major, index y*width + x, same bit layout as LGCA
+    int step = -1;      // -1 until the first copy
+
+    // averages of the model's CoarseField at that step, index by*blocksX + bx (blockSize 0 = the model has none)
+    int blockSize, blocksX, blocksY;
+    float[] density, momentumX, momentumY;
+
+    LatticeFrame(int width, int height) {
+        this.width = width;
+        this.height = height;
+        this.cells = new byte[width * height];
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    public int getStep() {
+        return step;
+    }
+
+    public byte[] getCells() {
+        return cells;
+    }
+
+    /** Copies the current state of the model, and its coarse field if it has one, into this frame. */
+    void copyFrom(Lattice model) {
+        model.copyCells(cells);
+        step = model.getCount();
+
+        CoarseField field = model.getCoarseField();
+        if (field == null) {
+            blockSize = 0;
+            return;
+        }
+        int blocks = field.getBlocksX() * field.getBlocksY();
+        if (density == null || density.length != blocks) {
+            density = new float[blocks];
+            momentumX = new float[blocks];
+            momentumY = new float[blocks];
+        }
+        field.copyAverages(density, momentumX, momentumY);
+        blockSize = field.getBlockSize();
+        blocksX = field.getBlocksX();
+        blocksY = field.getBlocksY();
+    }
+}
@@ -12,8 +12,9 @@ public class Main {
             JFrame frame = new JFrame("FHP-I Lattice Gas");
 //            Visualizer viz = new Visualizer(model);
             VisualizerAVG viz = new VisualizerAVG(model,2,16,0);
+            viz.setMinGlyphSize(2); // the particles of every cell even at 2 px, zoomed out shows block arrows
 
-            frame.add(viz);
+            frame.add(new JScrollPane(viz)); // ctrl + wheel zooms in on the cells
             frame.pack();
             frame.setDefaultCloseOperation(JFrame.DISPOSE_ON_CLOSE);
             frame.setVisible(true);
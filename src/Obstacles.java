@@ -0,0 +1,119 @@
+import java.awt.image.BufferedImage;
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import javax.imageio.ImageIO;
+
+/**
+ * Solid cells for a lattice, e.g. a porous medium or an airfoil, given to Lattice.setObstacles() before initialize().
+ * Loaded from an image: dark pixels (luminance below half) are solid, and the image is stretched over the lattice,
+ * so the drawing doesn't have to be the lattice size. Reads binary PGM (what BatchRunner's snapshots are) and
+ * whatever ImageIO reads (PNG, GIF, BMP, JPEG). Solid cells are walls like any other: particles bounce back off
+ * them the way they came, whichever way the face of the obstacle is turned.
+ */
+public class Obstacles {
+    private final int width, height;
+    private final boolean[] solid; // row-major
+
+    /** No solid cells yet, see setSolid(). */
+    public Obstacles(int width, int height) {
+        this.width = width;
+        this.height = height;
+        solid = new boolean[width * height];
+    }
+
+    /** Loads file stretched to width x height cells. */
+    public static Obstacles load(Path file, int width, int height) throws IOException {
+        int[][] image = readGray(file);
+        int imageHeight = image.length, imageWidth = image[0].length;
+
+        Obstacles obstacles = new Obstacles(width, height);
+        for (int y = 0; y < height; y++) {
+            int[] row = image[(int) ((long) y * imageHeight / height)];
+            for (int x = 0; x < width; x++) {
+                if (row[(int) ((long) x * imageWidth / width)] < 128)
+                    obstacles.solid[y * width + x] = true;
+            }
+        }
+        return obstacles;
+    }
+
+    /** Luminance 0-255 of every pixel, [y][x]. */
+    private static int[][] readGray(Path file) throws IOException {
+        try (InputStream in = new BufferedInputStream(Files.newInputStream(file))) {
+            in.mark(2);
+            if (in.read() == 'P' && in.read() == '5')
+                return readPgm(in, file);
+            in.reset();
+
+            BufferedImage image = ImageIO.read(in);
+            if (image == null)
+                throw new IOException("Unsupported image format: " + file);
+            int[][] gray = new int[image.getHeight()][image.getWidth()];
+            for (int y = 0; y < gray.length; y++) {
+                for (int x = 0; x < gray[y].length; x++) {
+                    int rgb = image.getRGB(x, y);
+                    gray[y][x] = (299 * (rgb >> 16 & 0xFF) + 587 * (rgb >> 8 & 0xFF) + 114 * (rgb & 0xFF)) / 1000;
+                }
+            }
+            return gray;
+        }
+    }
+
+    /** Binary PGM after the "P5" magic: width, height, maxval, then one (or two, if maxval > 255) bytes per pixel. */
+    private static int[][] readPgm(InputStream in, Path file) throws IOException {
+        int w = pgmNumber(in), h = pgmNumber(in), max = pgmNumber(in);
+        if (w <= 0 || h <= 0 || max <= 0 || max > 65535)
+            throw new IOException("Bad PGM header in " + file);
+        int[][] gray = new int[h][w];
+        for (int y = 0; y < h; y++) {
+            for (int x = 0; x < w; x++) {
+                int v = in.read();
+                if (max > 255)
+                    v = v << 8 | in.read();
+                if (v < 0)
+                    throw new IOException("PGM " + file + " is cut short");
+                gray[y][x] = v * 255 / max;
+            }
+        }
+        return gray;
+    }
+
+    /** Next number of a PGM header, skipping whitespace and comments; eats the single whitespace after it. */
+    private static int pgmNumber(InputStream in) throws IOException {
+        int c = in.read();
+        while (c == '#' || Character.isWhitespace(c)) {
+            if (c == '#') {
+                while (c != '\n' && c != -1) {
+                    c = in.read();
+                }
+            }
+            c = in.read();
+        }
+        int n = 0;
+        while (c >= '0' && c <= '9') {
+            n = n * 10 + (c - '0');
+            c = in.read();
+        }
+        return n;
+    }
+
+    public void setSolid(int x, int y) {
+        solid[y * width + x] = true;
+    }
+
+    /** Whether (x, y) is solid; false outside the mask. */
+    public boolean isSolid(int x, int y) {
+        return x >= 0 && x < width && y >= 0 && y < height && solid[y * width + x];
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+}
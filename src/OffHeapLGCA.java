@@ -0,0 +1,266 @@
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
+
+/**
+ * LGCA for lattices that don't fit on the heap (or in an array at all): the cells live in two CellStores outside
+ * the heap, direct memory or a mapped file, and a step swaps the two like LGCA swaps its grids.
+ *
+ * The stepping is done by LGCA itself, a band of rows at a time: a strip (see DomainWorker) reads its band plus
+ * timeBlock ghost rows on either side from the current store, takes up to timeBlock steps and writes the band back
+ * to the other store. Whatever goes wrong at the cut edges of the strip moves in by one row per step, so it never
+ * reaches the band. Every thread keeps one strip and reuses it for band after band, so the heap only ever holds
+ * a few bands, and the run is the same as one LGCA with the same settings (particles and walls; see
+ * LGCA.setSkipEmptyTiles()), OUTFLOW top and bottom edges included.
+ */
+public class OffHeapLGCA implements Lattice {
+    private final int width, height;
+    private final long seed;
+    private int count = 0;
+
+    // The scenario, handed on to every strip
+    private int wallX = 300, wallFrom = 300, wallTo = 400;
+    private Obstacles obstacles;
+    private double[] inflowWeights = {0.8, 0.5, 0.2, 0.1, 0.2, 0.5};
+    private final Boundary[] boundaries = {Boundary.INFLOW, Boundary.OUTFLOW, Boundary.WALL, Boundary.WALL};
+    private boolean vectorized = true;
+
+    private int bandRows; // rows a strip writes back per sweep
+    private int timeBlock = LGCA.TILE_H; // steps per sweep, and the ghost rows on either side of a band
+    private Path file; // null = direct memory
+
+    private CellStore cells, nextCells;
+    private int threads = 1;
+    private ForkJoinPool pool; // only when threads > 1
+    private ThreadLocal<LGCA> strips = ThreadLocal.withInitial(this::newStrip);
+    private byte[][] gridView;
+
+    public OffHeapLGCA(int width, int height, long seed) {
+        this.width = width;
+        this.height = height;
+        this.seed = seed;
+        // strips of about 16 MB of cells
+        bandRows = Math.min(height, Math.max(4 * timeBlock, (16 << 20) / width / LGCA.TILE_H * LGCA.TILE_H));
+    }
+
+    /** Keep the cells in file instead of direct memory (two stores, 2 * width * height bytes). Call before initialize(). */
+    public void setFile(Path file) {
+        this.file = file;
+    }
+
+    public void setWallSegment(int x, int fromRow, int toRow) {
+        wallX = x;
+        wallFrom = fromRow;
+        wallTo = toRow;
+    }
+
+    public void setObstacles(Obstacles obstacles) {
+        this.obstacles = obstacles;
+    }
+
+    public void setInflowWeights(double[] weights) {
+        inflowWeights = weights.clone();
+        resetStrips();
+    }
+
+    /** See LGCA.setBoundaries(); PERIODIC top/bottom isn't possible, a strip never has the whole lattice. */
+    public void setBoundaries(Boundary left, Boundary right, Boundary top, Boundary bottom) {
+        if (top == Boundary.PERIODIC || bottom == Boundary.PERIODIC)
+            throw new IllegalArgumentException("PERIODIC top/bottom needs the whole lattice in one LGCA");
+        if ((left == Boundary.PERIODIC) != (right == Boundary.PERIODIC))
+            throw new IllegalArgumentException("PERIODIC needs both opposite edges");
+        boundaries[LGCA.LEFT] = left;
+        boundaries[LGCA.RIGHT] = right;
+        boundaries[LGCA.TOP] = top;
+        boundaries[LGCA.BOTTOM] = bottom;
+        resetStrips();
+    }
+
+    public Boundary[] getBoundaries() {
+        return boundaries.clone();
+    }
+
+    /**
+     * Steps per sweep over the stores (at least 1). Every band is stepped with this many ghost rows on either side,
+     * so longer blocks mean fewer copies in and out but more rows stepped twice; see also setBandRows().
+     */
+    public void setTimeBlock(int k) {
+        timeBlock = Math.max(1, k);
+        resetStrips();
+    }
+
+    public int getTimeBlock() {
+        return timeBlock;
+    }
+
+    /** Rows per band. A strip holds bandRows + 2 * timeBlock rows, three bytes per cell, once per thread. */
+    public void setBandRows(int rows) {
+        bandRows = Math.max(1, rows);
+        resetStrips();
+    }
+
+    public int getBandRows() {
+        return bandRows;
+    }
+
+    public void setVectorized(boolean vectorized) {
+        this.vectorized = vectorized;
+        resetStrips();
+    }
+
+    /** Bands stepped at the same time, each thread with a strip of its own (1 = serial). */
+    public void setThreads(int n) {
+        if (pool != null)
+            pool.shutdown();
+        threads = Math.max(1, n);
+        pool = threads > 1 ? new ForkJoinPool(threads) : null;
+    }
+
+    public int getThreads() {
+        return threads;
+    }
+
+    private void resetStrips() {
+        strips = ThreadLocal.withInitial(this::newStrip);
+    }
+
+    private LGCA newStrip() {
+        LGCA strip = new LGCA(width, bandRows + 2 * timeBlock, seed, -timeBlock, height);
+        configure(strip);
+        strip.setTimeBlock(timeBlock);
+        return strip;
+    }
+
+    private void configure(LGCA lgca) {
+        lgca.setBoundaries(boundaries[LGCA.LEFT], boundaries[LGCA.RIGHT], boundaries[LGCA.TOP], boundaries[LGCA.BOTTOM]);
+        lgca.setInflowWeights(inflowWeights);
+        lgca.setVectorized(vectorized);
+    }
+
+    /** Sets up walls, the first inflow and the RAND bits, band by band like LGCA.initialize() does for the whole. */
+    public void initialize() {
+        try {
+            allocate();
+        }
+        catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        count = 0;
+        for (int y0 = 0; y0 < height; y0 += bandRows) {
+            int rows = Math.min(bandRows, height - y0);
+            LGCA band = new LGCA(width, rows, seed, y0, height);
+            configure(band);
+            band.setWallSegment(wallX, wallFrom, wallTo);
+            band.setObstacles(obstacles);
+            band.initialize();
+            cells.write(y0, rows, band.getCells(), 0);
+        }
+    }
+
+    private void allocate() throws IOException {
+        if (file == null) {
+            cells = CellStore.allocate(width, height);
+            nextCells = CellStore.allocate(width, height);
+            return;
+        }
+        // the mappings stay valid after the channel is closed
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            long bytes = CellStore.bytes(width, height);
+            cells = CellStore.map(channel, 0, width, height);
+            nextCells = CellStore.map(channel, bytes, width, height);
+        }
+    }
+
+    public void step() {
+        step(1);
+    }
+
+    /** Performs n steps, up to timeBlock per sweep over the stores. */
+    public void step(int n) {
+        while (n > 0) {
+            int k = Math.min(n, timeBlock);
+            sweep(k);
+            n -= k;
+        }
+    }
+
+    /** k steps of every band from cells into nextCells, then swaps them. */
+    private void sweep(int k) {
+        int bands = (height + bandRows - 1) / bandRows;
+        if (pool != null)
+            pool.submit(() -> IntStream.range(0, bands).parallel().forEach(b -> stepBand(b, k))).join();
+        else {
+            for (int b = 0; b < bands; b++) {
+                stepBand(b, k);
+            }
+        }
+        CellStore temp = cells;
+        cells = nextCells;
+        nextCells = temp;
+        count += k;
+    }
+
+    private void stepBand(int b, int k) {
+        LGCA strip = strips.get();
+        byte[] buf = strip.getCells();
+        int y0 = b * bandRows, rows = Math.min(bandRows, height - y0);
+        int top = y0 - timeBlock; // global row of the strip's row 0
+        int from = Math.max(0, top), to = Math.min(height, top + strip.getHeight());
+
+        // rows outside the lattice are empty, like the ghost rows of DomainWorker's strips
+        Arrays.fill(buf, 0, (from - top) * width, (byte) 0);
+        cells.read(from, to - from, buf, (from - top) * width);
+        Arrays.fill(buf, (to - top) * width, buf.length, (byte) 0);
+
+        strip.rebase(top, count);
+        strip.step(k);
+        nextCells.write(y0, rows, strip.getCells(), timeBlock * width);
+    }
+
+    public int getCount() {
+        return count;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    public long getSeed() {
+        return seed;
+    }
+
+    /** Read-only view of row y of the current lattice, for drawing without a copy. Good until the next step. */
+    public ByteBuffer getRow(int y) {
+        return cells.row(y);
+    }
+
+    /** Copies rows y to y + rows - 1 into dst at off. */
+    public void copyRows(int y, int rows, byte[] dst, int off) {
+        cells.read(y, rows, dst, off);
+    }
+
+    /** Copies the whole lattice, only for lattices that fit in an array. */
+    public void copyCells(byte[] dst) {
+        cells.read(0, height, dst, 0);
+    }
+
+    /** Returns a copy of the current grid as [y][x]. The arrays are reused between calls. */
+    public byte[][] getGrid() {
+        if (gridView == null)
+            gridView = new byte[height][width];
+        for (int y = 0; y < height; y++) {
+            cells.read(y, 1, gridView[y], 0);
+        }
+        return gridView;
+    }
+}
@@ -0,0 +1,47 @@
+import java.util.Arrays;
+
+/**
+ * Scaling report for LGCA.setThreads(): runs the same seeded lattice with 1 to N threads and prints
+ * ms per step, million lattice updates per second and speedup, and checks every run ends on the same lattice.
+ *
+ * Usage: java ParallelScaling [width height steps maxThreads]
+ */
+public class ParallelScaling {
+    public static void main(String[] args) {
+        int width = args.length > 0 ? Integer.parseInt(args[0]) : 1000;
+        int height = args.length > 1 ? Integer.parseInt(args[1]) : 600;
+        int steps = args.length > 2 ? Integer.parseInt(args[2]) : 500;
+        int maxThreads = args.length > 3 ? Integer.parseInt(args[3]) : Runtime.getRuntime().availableProcessors();
+        long seed = 1;
+
+        System.out.printf("%dx%d lattice, %d steps, %d cores%n", width, height, steps, Runtime.getRuntime().availableProcessors());
+        System.out.printf("%8s %10s %10s %8s %s%n", "threads", "ms/step", "MLUPS", "speedup", "same lattice");
+
+        byte[] reference = null;
+        double base = 0;
+        for (int threads = 1; threads <= maxThreads; threads++) {
+            LGCA model = new LGCA(width, height, seed);
+            model.initialize();
+            model.setThreads(threads);
+
+            // warm-up, also lets the inflow front get into the lattice
+            for (int s = 0; s < steps / 5; s++) {
+                model.step();
+            }
+            long start = System.nanoTime();
+            for (int s = 0; s < steps; s++) {
+                model.step();
+            }
+            double msPerStep = (System.nanoTime() - start) / 1e6 / steps;
+            model.setThreads(1);
+
+            byte[] cells = model.getCells().clone();
+            if (reference == null) {
+                reference = cells;
+                base = msPerStep;
+            }
+            double mlups = (double) width * height / (msPerStep * 1e3);
+            System.out.printf("%8d %10.3f %10.1f %8.2f %s%n", threads, msPerStep, mlups, base / msPerStep, Arrays.equals(reference, cells));
+        }
+    }
+}
@@ -0,0 +1,78 @@
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Steps a model on its own thread, unthrottled or at a target rate, and publishes copies of the lattice
+ * for the renderer without locks (triple buffering):
+ * the simulation fills its back frame and swaps it into the shared slot, the renderer swaps its front frame
+ * against the slot when the slot holds a newer step. Each frame is owned by one side at a time, so the
+ * renderer never sees a half written lattice. A frame the renderer didn't pick up in time is simply overwritten,
+ * frames are dropped, never queued.
+ */
+public class SimulationThread extends Thread {
+    // don't copy the lattice more often than a screen can show it
+    private static final long MIN_PUBLISH_NANOS = 1_000_000_000L / 120;
+
+    private final Lattice model;
+    private final long periodNanos; // 0 = unthrottled
+    private final AtomicReference<LatticeFrame> latest;
+    private LatticeFrame back;  // simulation side
+    private LatticeFrame front; // renderer side
+    private volatile boolean running = true;
+
+    /** stepsPerSecond <= 0 runs as fast as the model goes. */
+    public SimulationThread(Lattice model, double stepsPerSecond) {
+        super("lgca-simulation");
+        setDaemon(true);
+        this.model = model;
+        this.periodNanos = stepsPerSecond > 0 ? (long) (1e9 / stepsPerSecond) : 0;
+
+        int w = model.getWidth(), h = model.getHeight();
+        back = new LatticeFrame(w, h);
+        front = new LatticeFrame(w, h);
+        LatticeFrame first = new LatticeFrame(w, h);
+        first.copyFrom(model); // so there is something to paint before the first step
+        latest = new AtomicReference<>(first);
+    }
+
+    @Override
+    public void run() {
+        long next = System.nanoTime();
+        long lastPublish = 0;
+
+        while (running) {
+            model.step();
+
+            long now = System.nanoTime();
+            if (now - lastPublish >= MIN_PUBLISH_NANOS) {
+                back.copyFrom(model);
+                back = latest.getAndSet(back); // whatever was there (picked up or not) becomes the next back frame
+                lastPublish = now;
+            }
+
+            if (periodNanos > 0) {
+                next += periodNanos;
+                long wait = next - System.nanoTime();
+                if (wait > 0)
+                    LockSupport.parkNanos(wait);
+                else
+                    next = System.nanoTime(); // fell behind, don't try to catch up
+            }
+        }
+    }
+
+    /**
+     * The newest complete frame. Call only from the rendering thread; the frame stays valid
+     * until the next call.
+     */
+    public LatticeFrame latestFrame() {
+        if (latest.get().step > front.step)
+            front = latest.getAndSet(front);
+        return front;
+    }
+
+    /** Stops stepping after the current step. */
+    public void shutdown() {
+        running = false;
+    }
+}
@@ -0,0 +1,13 @@
+/**
+ * Streams a row of an open tile of LGCA: no walls in or next to it and away from the edges, so every cell just
+ * gathers the particles heading its way (see LGCA.streamRows()). The scalar loop in LGCA is the reference;
+ * VectorStreamKernel (src-vector) does the same with the Vector API.
+ */
+interface StreamKernel {
+    /**
+     * Writes cells i to i+n-1 of dst from the neighbors in src, at index offsets off (E, NE, NW, W, SW, SE).
+     * Cell i+k gets bit k of bits as its RAND bit. With collide, every source cell goes through the collision first
+     * (the fused step). Returns the OR of the particle bits written.
+     */
+    int streamOpen(byte[] src, byte[] dst, int i, int n, int[] off, long bits, boolean collide);
+}
@@ -1,54 +1,101 @@
 import javax.swing.*;
 import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
 
-public class Visualizer extends JPanel {
-    private LGCA model;
+public class Visualizer extends JPanel implements FramePainter {
+    private Lattice model;
     private int cellSize = 1; // pixels per cell
+    private SimulationThread simulation; // null until start()
+    private LatticeFrame still;          // painted before start()
 
-    public Visualizer(LGCA model) {
+    private static final int[] PALETTE = buildPalette(); // cell byte -> RGB
+    private BufferedImage image;  // one pixel per cell, reused between repaints
+    private int[] pixels;         // the image's data buffer
+
+    public Visualizer(Lattice model) {
         this.model = model;
 
         // Set preferred size based on model dimensions
-        setPreferredSize(new Dimension(model.getGrid()[0].length * cellSize,model.getGrid().length * cellSize));
+        setPreferredSize(new Dimension(model.getWidth() * cellSize, model.getHeight() * cellSize));
+    }
+
+    /** Pixels per cell. */
+    public void setCellSize(int sz) {
+        this.cellSize = Math.max(1, sz);
+        setPreferredSize(new Dimension(model.getWidth() * cellSize, model.getHeight() * cellSize));
+        revalidate();
+        repaint();
     }
 
     @Override
     protected void paintComponent(Graphics g) {
         super.paintComponent(g);
-        byte[][] grid = model.getGrid();
+        paintFrame(g, currentFrame());
+    }
 
-        for (int y = 0; y < grid.length; y++) {
-            for (int x = 0; x < grid[0].length; x++) {
-                byte cell = grid[y][x];
+    @Override
+    public void paintFrame(Graphics g, LatticeFrame frame) {
+        int width = frame.getWidth(), height = frame.getHeight();
+
+        if (image == null || image.getWidth() != width || image.getHeight() != height) {
+            image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+            pixels = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+        }
 
-                if ((cell & LGCA.SOLID) != 0) {
-                    g.setColor(Color.BLACK);
-                    g.fillRect(x * cellSize, y * cellSize, cellSize, cellSize);
-                }
-                else {
-                    // Color based on number of particles:
+        // one palette lookup per cell straight into the image, then a single scaled blit
+        byte[] cells = frame.getCells();
+        for (int i = 0; i < pixels.length; i++) {
+            pixels[i] = PALETTE[cells[i] & 0xFF];
+        }
+        g.drawImage(image, 0, 0, width * cellSize, height * cellSize, null);
+    }
 
-                    int count = Integer.bitCount(cell & LGCA.PARTICLE_BITS);
+    /** RGB color of every cell byte. */
+    private static int[] buildPalette() {
+        int[] palette = new int[256];
+        for (int cell = 0; cell < 256; cell++) {
+            if ((cell & LGCA.SOLID) != 0) {
+                palette[cell] = 0x000000; // walls are black
+            }
+            else {
+                // Color based on number of particles:
+                int count = Integer.bitCount(cell & LGCA.PARTICLE_BITS);
 
-                    // More particles -> brighter color:
+                // More particles -> darker blue:
 //                    int intensity = Math.min(255, 50 + 40 * count);
-                    int intensity = Math.max(0, 255 - 40 * count);
+                int intensity = Math.max(0, 255 - 40 * count);
 
-                    g.setColor(new Color(intensity, intensity, 255)); //new Color(intensity, intensity, 255)
-                    g.fillRect(x * cellSize, y * cellSize, cellSize, cellSize);
-                }
-                // else leave background (empty)
+                palette[cell] = intensity << 16 | intensity << 8 | 255; //new Color(intensity, intensity, 255)
             }
         }
+        return palette;
     }
 
-    /** Start an animation timer to step the model and repaint. */
+    /** Latest complete frame of the simulation thread, or a copy of the model if it isn't running. */
+    private LatticeFrame currentFrame() {
+        if (simulation != null)
+            return simulation.latestFrame();
+        if (still == null)
+            still = new LatticeFrame(model.getWidth(), model.getHeight());
+        still.copyFrom(model);
+        return still;
+    }
+
+    /** Start stepping the model as fast as it goes, see start(double). */
     public void start() {
-        Timer timer = new Timer(100, e -> {
-            model.step();
-            repaint();
-        });
+        start(0);
+    }
+
+    /**
+     * Step the model on its own thread (stepsPerSecond <= 0 = unthrottled) and repaint the latest frame
+     * on a timer. Painting no longer holds up the simulation, frames it can't keep up with are skipped.
+     */
+    public void start(double stepsPerSecond) {
+        simulation = new SimulationThread(model, stepsPerSecond);
+        simulation.start();
 
+        Timer timer = new Timer(1000 / 30, e -> repaint());
         timer.start();
     }
 }
@@ -1,8 +1,11 @@
 import java.awt.*;
+import java.awt.event.MouseWheelEvent;
 import java.awt.geom.*;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
 import javax.swing.*;
 
-public class VisualizerAVG extends JPanel {
+public class VisualizerAVG extends JPanel implements FramePainter {
     // Visualization modes
     public static final int MODE_CELL = 0;
     public static final int MODE_BLOCK = 1;
@@ -12,7 +15,23 @@ public class VisualizerAVG extends JPanel {
     private int cellSize;       // pixel size of one lattice cell
     private int blockSize;       // block size for averaging
 //    private boolean[][][] lattice;   // [x][y][direction] occupancy (6 directions)
-    private LGCA model;
+    private Lattice model;
+    private SimulationThread simulation; // null until start()
+    private LatticeFrame still;          // painted before start()
+    private int window = 1;              // steps averaged by the engine-side field
+
+    // block sums computed in the paint path when the frame has no field with our block size
+    private CoarseField localField;
+    private float[] localDensity, localX, localY;
+
+    // MODE_CELL glyphs: the pixels of every particle configuration (0-63) and of a wall (64) at glyphSize, drawn
+    // once with the arrows and then copied row by row into an image of the visible cells, one drawImage per paint
+    private static final int WALL_GLYPH = 64;
+    private int[][] glyphs;
+    private int glyphSize;
+    private Color glyphBackground;
+    private BufferedImage viewport; // reused while big enough
+    private int minGlyphSize = 4;   // below this many pixels per cell MODE_CELL shows block arrows instead
 
     // Define the 6 unit velocity vectors for D2Q6 (y-axis downwards).
     private final double sqrt3 = Math.sqrt(3.0);
@@ -26,12 +45,13 @@ public class VisualizerAVG extends JPanel {
             {0.5, sqrt3 / 2}   // South-East
     };
 
-    public VisualizerAVG(LGCA model, int cellSize, int blockSize, int mode) {
+    public VisualizerAVG(Lattice model, int cellSize, int blockSize, int mode) {
         this.model = model;
         this.cellSize = cellSize;
         this.blockSize = blockSize;
         setMode(mode);
-        setPreferredSize(new Dimension(model.getGrid()[0].length * cellSize,model.getGrid().length * cellSize));
+        setPreferredSize(new Dimension(model.getWidth() * cellSize, model.getHeight() * cellSize));
+        addMouseWheelListener(this::wheelMoved);
     }
 
     public void setMode(int mode) {
@@ -44,103 +64,110 @@ public class VisualizerAVG extends JPanel {
 //    }
 
     public void setCellSize(int sz) {
-        this.cellSize = sz;
+        this.cellSize = Math.max(1, sz);
+        setPreferredSize(new Dimension(model.getWidth() * cellSize, model.getHeight() * cellSize));
+        revalidate();
         repaint();
     }
 
+    /** Cell size in pixels from which MODE_CELL draws the particles of every cell; smaller is drawn as MODE_BLOCK. */
+    public void setMinGlyphSize(int px) {
+        this.minGlyphSize = px;
+        repaint();
+    }
+
+    /** Ctrl + wheel zooms around the mouse, anything else goes on to an enclosing scroll pane. */
+    private void wheelMoved(MouseWheelEvent e) {
+        if (!e.isControlDown()) {
+            if (getParent() != null)
+                getParent().dispatchEvent(SwingUtilities.convertMouseEvent(this, e, getParent()));
+            return;
+        }
+        int old = cellSize;
+        int size = Math.max(1, Math.min(64, e.getWheelRotation() < 0 ? old + Math.max(1, old / 4) : old - Math.max(1, old / 4)));
+        if (size == old)
+            return;
+        Rectangle view = getVisibleRect();
+        double cx = e.getX() / (double) old, cy = e.getY() / (double) old; // cell under the mouse stays there
+        setCellSize(size);
+        SwingUtilities.invokeLater(() -> scrollRectToVisible(new Rectangle(
+                (int) (cx * size) - (e.getX() - view.x), (int) (cy * size) - (e.getY() - view.y), view.width, view.height)));
+    }
+
     public void setBlockSize(int bs) {
         this.blockSize = bs;
         repaint();
     }
 
+    /** Number of steps the block arrows are averaged over, takes effect at start(). */
+    public void setAveragingWindow(int steps) {
+        this.window = steps;
+    }
+
     @Override
     protected void paintComponent(Graphics g) {
         super.paintComponent(g);
-        if (model.getGrid() == null)
-            return;
-        byte[][] grid = model.getGrid();
+        paintFrame(g, currentFrame());
+    }
+
+    @Override
+    public void paintFrame(Graphics g, LatticeFrame frame) {
+        byte[] cells = frame.getCells();
         Graphics2D g2 = (Graphics2D) g;
 
         g2.setColor(Color.BLUE);  // color for arrows (can change per mode)
-        int nx = grid[0].length;
-        int ny = grid.length;
-
-        // 1) Cell-based arrows
-        if (visMode == MODE_CELL) {
-            // For each cell and each direction, draw arrow if particle present.
-            for (int x = 0; x < nx; x++) {
-                for (int y = 0; y < ny; y++) {
-                    // Center of this cell in pixels
-                    double cx = (x + 0.5) * cellSize;
-                    double cy = (y + 0.5) * cellSize;
-
-                    if ((grid[y][x] & LGCA.SOLID) != 0) {
-                        g.setColor(Color.BLACK);
+        int nx = frame.getWidth();
+        int ny = frame.getHeight();
+
+        // 1) Cell-based arrows, from the glyphs
+        if (visMode == MODE_CELL && cellSize >= minGlyphSize) {
+            paintCells(g, cells, nx, ny);
+        }
+        // 2) Block-averaged or Eddy visualization, also MODE_CELL zoomed out
+        else {
+            // walls
+            g.setColor(Color.BLACK);
+            for (int y = 0; y < ny; y++) {
+                for (int x = 0; x < nx; x++) {
+                    if ((cells[y * nx + x] & LGCA.SOLID) != 0)
                         g.fillRect(x * cellSize, y * cellSize, cellSize, cellSize);
-                        continue;
-                    }
-                    g.setColor(Color.BLUE);
-
-                    // Draw arrows for each occupied direction
-                    for (int d = 0; d < 6; d++) {
-                        if ((grid[y][x] & 1 << d) != 0) { //if bit d is 1
-                            // Scale arrow length so it fits in cell
-                            double scale = cellSize * 0.4;
-                            double vx = directions[d][0] * scale;
-                            double vy = directions[d][1] * scale;
-
-                            drawArrow(g2, cx, cy, vx, vy);
-                        }
-                    }
                 }
             }
-        }
-        // 2) Block-averaged or Eddy visualization
-        else {
-            int blocksX = nx / blockSize;
-            int blocksY = ny / blockSize;
-            // Sum velocity vectors per block
-            double[][] sumX = new double[blocksX][blocksY];
-            double[][] sumY = new double[blocksX][blocksY];
-
-            for (int bx = 0; bx < blocksX; bx++) {
-                for (int by = 0; by < blocksY; by++) {
-                    double sx = 0, sy = 0;
-                    for (int i = 0; i < blockSize; i++) {
-                        for (int j = 0; j < blockSize; j++) {
-                            int x = bx * blockSize + i;
-                            int y = by * blockSize + j;
-
-                            if (x >= nx || y >= ny)
-                                continue;
-
-                            if ((grid[y][x] & LGCA.SOLID) != 0) {
-                                g.setColor(Color.BLACK);
-                                g.fillRect(x * cellSize, y * cellSize, cellSize, cellSize);
-                                continue;
-                            }
-                            g.setColor(Color.BLUE);
-
-                            for (int d = 0; d < 6; d++) {
-                                if ((grid[y][x] & 1<<d) != 0) {
-                                    sx += directions[d][0]; //vel_sum_x
-                                    sy += directions[d][1]; //vel_sum_y
-                                }
-                            }
-                        }
-                    }
-                    sumX[bx][by] = sx; //momentum[0]
-                    sumY[bx][by] = sy; //momentum[1]
+            g.setColor(Color.BLUE);
+
+            // Summed velocity vectors per block: from the engine if it keeps a field with our block size,
+            // otherwise computed here from the frame
+            float[] sumX, sumY;
+            int blocksX, blocksY;
+            if (frame.blockSize == blockSize) {
+                sumX = frame.momentumX;
+                sumY = frame.momentumY;
+                blocksX = frame.blocksX;
+                blocksY = frame.blocksY;
+            }
+            else {
+                if (localField == null || localField.getBlockSize() != blockSize || localField.getBlocksX() != nx / blockSize
+                        || localField.getBlocksY() != ny / blockSize) {
+                    localField = new CoarseField(nx, ny, blockSize, 1);
+                    int blocks = localField.getBlocksX() * localField.getBlocksY();
+                    localDensity = new float[blocks];
+                    localX = new float[blocks];
+                    localY = new float[blocks];
                 }
+                localField.accumulate(cells);
+                localField.copyAverages(localDensity, localX, localY);
+                sumX = localX;
+                sumY = localY;
+                blocksX = localField.getBlocksX();
+                blocksY = localField.getBlocksY();
             }
+
             // Compute global average (for Eddy mode)
             double globalX = 0, globalY = 0;
             if (visMode == MODE_EDDY) {
-                for (int bx = 0; bx < blocksX; bx++) {
-                    for (int by = 0; by < blocksY; by++) {
-                        globalX += sumX[bx][by];
-                        globalY += sumY[bx][by];
-                    }
+                for (int b = 0; b < blocksX * blocksY; b++) {
+                    globalX += sumX[b];
+                    globalY += sumY[b];
                 }
                 int numBlocks = blocksX * blocksY;
                 if (numBlocks > 0) {
@@ -151,8 +178,8 @@ public class VisualizerAVG extends JPanel {
             // Draw one arrow per block
             for (int bx = 0; bx < blocksX; bx++) {
                 for (int by = 0; by < blocksY; by++) {
-                    double vx = sumX[bx][by];
-                    double vy = sumY[bx][by];
+                    double vx = sumX[by * blocksX + bx];
+                    double vy = sumY[by * blocksX + bx];
 
                     // Subtract global mean if in Eddy mode
                     if (visMode == MODE_EDDY) {
@@ -175,6 +202,64 @@ public class VisualizerAVG extends JPanel {
         }
     }
 
+    /** Copies the glyph of every cell in the clip into the viewport image and draws that. */
+    private void paintCells(Graphics g, byte[] cells, int nx, int ny) {
+        Rectangle clip = g.getClipBounds();
+        if (clip == null)
+            clip = new Rectangle(0, 0, nx * cellSize, ny * cellSize);
+        int x0 = Math.max(0, clip.x / cellSize), y0 = Math.max(0, clip.y / cellSize);
+        int x1 = Math.min(nx, (clip.x + clip.width + cellSize - 1) / cellSize);
+        int y1 = Math.min(ny, (clip.y + clip.height + cellSize - 1) / cellSize);
+        if (x0 >= x1 || y0 >= y1)
+            return;
+
+        buildGlyphs();
+        int w = (x1 - x0) * cellSize, h = (y1 - y0) * cellSize;
+        if (viewport == null || viewport.getWidth() < w || viewport.getHeight() < h)
+            viewport = new BufferedImage(Math.max(w, viewport == null ? 0 : viewport.getWidth()),
+                    Math.max(h, viewport == null ? 0 : viewport.getHeight()), BufferedImage.TYPE_INT_RGB);
+        int[] pixels = ((DataBufferInt) viewport.getRaster().getDataBuffer()).getData();
+        int stride = viewport.getWidth();
+
+        for (int y = y0; y < y1; y++) {
+            int p = (y - y0) * cellSize * stride;
+            for (int x = x0; x < x1; x++, p += cellSize) {
+                int cell = cells[y * nx + x];
+                int[] glyph = glyphs[(cell & LGCA.SOLID) != 0 ? WALL_GLYPH : cell & LGCA.PARTICLE_BITS];
+                for (int r = 0, q = p; r < cellSize; r++, q += stride) {
+                    System.arraycopy(glyph, r * cellSize, pixels, q, cellSize);
+                }
+            }
+        }
+        g.drawImage(viewport, x0 * cellSize, y0 * cellSize, x0 * cellSize + w, y0 * cellSize + h, 0, 0, w, h, null);
+    }
+
+    /** Draws the glyphs for the current cell size and background, if they aren't already. */
+    private void buildGlyphs() {
+        Color background = getBackground();
+        if (glyphs != null && glyphSize == cellSize && background.equals(glyphBackground))
+            return;
+        glyphs = new int[WALL_GLYPH + 1][];
+        glyphSize = cellSize;
+        glyphBackground = background;
+
+        BufferedImage glyph = new BufferedImage(cellSize, cellSize, BufferedImage.TYPE_INT_RGB);
+        double scale = cellSize * 0.4; // arrow length, fits in the cell
+        for (int c = 0; c <= WALL_GLYPH; c++) {
+            Graphics2D g2 = glyph.createGraphics();
+            g2.setColor(c == WALL_GLYPH ? Color.BLACK : background);
+            g2.fillRect(0, 0, cellSize, cellSize);
+            g2.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+            g2.setColor(Color.BLUE);
+            for (int d = 0; d < 6 && c != WALL_GLYPH; d++) {
+                if ((c & 1 << d) != 0)
+                    drawArrow(g2, cellSize / 2.0, cellSize / 2.0, directions[d][0] * scale, directions[d][1] * scale);
+            }
+            g2.dispose();
+            glyphs[c] = glyph.getRGB(0, 0, cellSize, cellSize, null, 0, cellSize);
+        }
+    }
+
     /**
      * Draws an arrow (line + arrowhead) from (x,y) in direction (vx,vy).
      */
@@ -219,12 +304,34 @@ public class VisualizerAVG extends JPanel {
         g2.fill(arrowHead);
     }
 
+    /** Latest complete frame of the simulation thread, or a copy of the model if it isn't running. */
+    private LatticeFrame currentFrame() {
+        if (simulation != null)
+            return simulation.latestFrame();
+        if (still == null)
+            still = new LatticeFrame(model.getWidth(), model.getHeight());
+        still.copyFrom(model);
+        return still;
+    }
+
+    /** Start stepping the model as fast as it goes, see start(double). */
     public void start() {
-        Timer timer = new Timer(100, e -> {
-            model.step();
-            repaint();
-        });
+        start(0);
+    }
+
+    /**
+     * Step the model on its own thread (stepsPerSecond <= 0 = unthrottled) and repaint the latest frame
+     * on a timer. Painting no longer holds up the simulation, frames it can't keep up with are skipped.
+     */
+    public void start(double stepsPerSecond) {
+        // let the engine keep the block field while stepping, so painting doesn't sum up the cells
+        if ((visMode != MODE_CELL || cellSize < minGlyphSize) && model instanceof LGCA && ((LGCA) model).getCoarseField() == null)
+            ((LGCA) model).setCoarseField(new CoarseField(model.getWidth(), model.getHeight(), blockSize, window));
+
+        simulation = new SimulationThread(model, stepsPerSecond);
+        simulation.start();
 
+        Timer timer = new Timer(1000 / 30, e -> repaint());
         timer.start();
     }
 
@@ -0,0 +1,54 @@
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class CheckpointTest {
+    private static final int EDGES_OFFSET = 5 * 4 + 8 + 6 * 8; // magic, version, width, height, count, seed, weights
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void keepsTheEdges() throws IOException {
+        Path file = save();
+        assertArrayEquals(new Boundary[]{Boundary.WALL, Boundary.OUTFLOW, Boundary.INFLOW, Boundary.WALL},
+                Checkpoint.load(file).getBoundaries());
+    }
+
+    @Test
+    void unknownEdgeIsAnIOException() throws IOException {
+        Path file = save();
+        for (int ordinal : new int[]{Boundary.values().length, 0xFF}) {
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+                channel.write(ByteBuffer.wrap(new byte[]{(byte) ordinal}), EDGES_OFFSET + 2);
+            }
+            assertThrows(IOException.class, () -> Checkpoint.load(file));
+        }
+    }
+
+    @Test
+    void unpairedPeriodicEdgeIsAnIOException() throws IOException {
+        Path file = save();
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+            channel.write(ByteBuffer.wrap(new byte[]{(byte) Boundary.PERIODIC.ordinal()}), EDGES_OFFSET); // left only
+        }
+        assertThrows(IOException.class, () -> Checkpoint.load(file));
+    }
+
+    private Path save() throws IOException {
+        LGCA lgca = new LGCA(64, 32, 1);
+        lgca.setBoundaries(Boundary.WALL, Boundary.OUTFLOW, Boundary.INFLOW, Boundary.WALL);
+        lgca.initialize();
+        Path file = dir.resolve("checkpoint.bin");
+        Checkpoint.save(lgca, file);
+        return file;
+    }
+}
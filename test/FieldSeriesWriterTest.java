@@ -0,0 +1,69 @@
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/** A series file only ever holds frames in step order. */
+class FieldSeriesWriterTest {
+    @TempDir
+    Path dir;
+
+    @Test
+    void newWriterStartsOver() throws IOException {
+        Path file = dir.resolve("series.bin");
+        write(file, 10, false, 10, 20, 30);
+        write(file, 10, false, 10, 20);
+        assertSteps(file, 10, 20);
+    }
+
+    @Test
+    void appendCarriesOn() throws IOException {
+        Path file = dir.resolve("series.bin");
+        write(file, 10, false, 10, 20);
+        try (FieldSeriesWriter writer = new FieldSeriesWriter(file, new CoarseField(64, 32, 16, 10), 4, true)) {
+            assertEquals(20, writer.getLastStep());
+            assertThrows(IllegalArgumentException.class, () -> writer.record(20, new CoarseField(64, 32, 16, 10)));
+        }
+        write(file, 10, true, 30, 40);
+        assertSteps(file, 10, 20, 30, 40);
+    }
+
+    @Test
+    void appendNeedsTheSameWindow() throws IOException {
+        Path file = dir.resolve("series.bin");
+        write(file, 10, false, 10);
+        assertThrows(IOException.class, () -> write(file, 5, true, 20));
+    }
+
+    @Test
+    void stepsOnlyGoUp() throws IOException {
+        CoarseField field = new CoarseField(64, 32, 16, 10);
+        try (FieldSeriesWriter writer = new FieldSeriesWriter(dir.resolve("series.bin"), field, 4)) {
+            writer.record(10, field);
+            assertThrows(IllegalArgumentException.class, () -> writer.record(10, field));
+            assertThrows(IllegalArgumentException.class, () -> writer.record(5, field));
+        }
+    }
+
+    private static void write(Path file, int window, boolean append, long... steps) throws IOException {
+        CoarseField field = new CoarseField(64, 32, 16, window);
+        try (FieldSeriesWriter writer = new FieldSeriesWriter(file, field, steps.length, append)) {
+            for (long step : steps) {
+                writer.record(step, field);
+            }
+        }
+    }
+
+    private static void assertSteps(Path file, long... steps) throws IOException {
+        try (FieldSeriesReader reader = new FieldSeriesReader(file)) {
+            assertEquals(steps.length, reader.getFrameCount());
+            for (int i = 0; i < steps.length; i++) {
+                assertEquals(steps[i], reader.getStep(i));
+            }
+        }
+    }
+}
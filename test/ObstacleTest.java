@@ -0,0 +1,51 @@
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/** Cells of an obstacle image bounce particles back like walls do, vertical faces included. */
+class ObstacleTest {
+    private static final int WIDTH = 64, HEIGHT = 32;
+    // the block in the image, columns 30-33 and rows 4-27
+    private static final int X0 = 30, X1 = 34, Y0 = 4, Y1 = 28;
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void bouncesBackFromVerticalFaces() throws IOException {
+        Obstacles obstacles = Obstacles.load(block(), WIDTH, HEIGHT);
+        assertTrue(obstacles.isSolid(X0, Y0) && obstacles.isSolid(X1 - 1, Y1 - 1) && !obstacles.isSolid(X0 - 1, 16));
+
+        fire(obstacles, 20, 16, LGCA.EAST, LGCA.WEST);           // left face, head on
+        fire(obstacles, 45, 16, LGCA.WEST, LGCA.EAST);           // right face, head on
+        fire(obstacles, 27, 16, LGCA.NORTHEAST, LGCA.SOUTHWEST); // left face at an angle
+        fire(obstacles, 27, 16, LGCA.SOUTHEAST, LGCA.NORTHWEST);
+        fire(obstacles, 36, 16, LGCA.NORTHWEST, LGCA.SOUTHEAST); // right face at an angle
+        fire(obstacles, 36, 16, LGCA.SOUTHWEST, LGCA.NORTHEAST);
+    }
+
+    /** A binary PGM the size of the lattice, white but for the block. */
+    private Path block() throws IOException {
+        Path file = dir.resolve("block.pgm");
+        try (OutputStream os = Files.newOutputStream(file)) {
+            os.write(String.format("P5%n%d %d%n255%n", WIDTH, HEIGHT).getBytes());
+            for (int y = 0; y < HEIGHT; y++) {
+                for (int x = 0; x < WIDTH; x++) {
+                    os.write(x >= X0 && x < X1 && y >= Y0 && y < Y1 ? 0 : 255);
+                }
+            }
+        }
+        return file;
+    }
+
+    // long enough to get to the block and back, too short to get to the lattice edges and back
+    private static void fire(Obstacles obstacles, int x, int y, byte direction, byte back) {
+        Particles.fire(WIDTH, HEIGHT, obstacles, x, y, direction, back, 24);
+    }
+}
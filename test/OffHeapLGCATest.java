@@ -0,0 +1,57 @@
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.fail;
+
+/** OffHeapLGCA steps its bands through LGCA strips and has to give the same run as one LGCA. */
+class OffHeapLGCATest {
+    private static final int WIDTH = 200, HEIGHT = 150;
+
+    @Test
+    void sameAsLGCAWithOutflowTopAndBottom() {
+        Boundary[] edges = {Boundary.INFLOW, Boundary.OUTFLOW, Boundary.OUTFLOW, Boundary.OUTFLOW};
+        compare(edges, 32, 16);
+        compare(edges, 32, 4);
+        compare(edges, 7, 1);
+    }
+
+    @Test
+    void sameAsLGCAWithOneOutflowEdge() {
+        compare(new Boundary[]{Boundary.INFLOW, Boundary.OUTFLOW, Boundary.WALL, Boundary.OUTFLOW}, 32, 16);
+        compare(new Boundary[]{Boundary.INFLOW, Boundary.OUTFLOW, Boundary.OUTFLOW, Boundary.WALL}, 32, 16);
+    }
+
+    @Test
+    void sameAsLGCAWithWalls() {
+        compare(new Boundary[]{Boundary.INFLOW, Boundary.OUTFLOW, Boundary.WALL, Boundary.WALL}, 32, 16);
+    }
+
+    private static void compare(Boundary[] edges, int bandRows, int timeBlock) {
+        LGCA lgca = new LGCA(WIDTH, HEIGHT, 1);
+        lgca.setBoundaries(edges[0], edges[1], edges[2], edges[3]);
+        lgca.setWallSegment(60, 40, 100);
+        lgca.initialize();
+
+        OffHeapLGCA offHeap = new OffHeapLGCA(WIDTH, HEIGHT, 1);
+        offHeap.setBoundaries(edges[0], edges[1], edges[2], edges[3]);
+        offHeap.setWallSegment(60, 40, 100);
+        offHeap.setBandRows(bandRows);
+        offHeap.setTimeBlock(timeBlock);
+        offHeap.initialize();
+
+        byte[] cells = new byte[WIDTH * HEIGHT];
+        for (int s = 1; s <= 120; s++) {
+            lgca.step();
+            offHeap.step();
+            offHeap.copyCells(cells);
+            byte[] expected = lgca.getCells();
+            for (int i = 0; i < cells.length; i++) {
+                // particles and walls, see LGCA.setSkipEmptyTiles() for the RAND bits
+                if ((cells[i] & ~LGCA.RAND) != (expected[i] & ~LGCA.RAND))
+                    fail(Arrays.toString(edges) + ", bands of " + bandRows + ", time block "
+                            + timeBlock + ": step " + s + " differs at (" + i % WIDTH + ", " + i / WIDTH + ")");
+            }
+        }
+    }
+}
@@ -0,0 +1,44 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.fail;
+
+/** Fixtures for tests that follow single particles. */
+class Particles {
+    private Particles() {
+    }
+
+    /**
+     * Steps a width x height lattice, walled all round and holding obstacles (null = none), with one particle at
+     * (x, y) moving in direction, until it is back there moving back. Fails if that takes more than steps steps
+     * or the particle gets lost.
+     */
+    static void fire(int width, int height, Obstacles obstacles, int x, int y, byte direction, byte back, int steps) {
+        LGCA lgca = new LGCA(width, height, 1);
+        lgca.setBoundaries(Boundary.WALL, Boundary.WALL, Boundary.WALL, Boundary.WALL);
+        lgca.setWallSegment(-1, 0, 0);
+        lgca.setObstacles(obstacles);
+        lgca.initialize();
+        byte[] cells = lgca.getCells().clone();
+        for (int i = 0; i < cells.length; i++) {
+            cells[i] &= ~LGCA.PARTICLE_BITS;
+        }
+        cells[y * width + x] |= direction;
+        lgca.restore(0, cells);
+
+        for (int s = 0; s < steps; s++) {
+            lgca.step();
+            assertEquals(1, count(lgca.getCells()), "particles after step " + (s + 1));
+            if ((lgca.getCells()[y * width + x] & LGCA.PARTICLE_BITS) == back)
+                return;
+        }
+        fail("Particle fired " + direction + " from (" + x + ", " + y + ") never came back");
+    }
+
+    /** Particles in cells. */
+    static int count(byte[] cells) {
+        int n = 0;
+        for (byte c : cells) {
+            n += Integer.bitCount(c & LGCA.PARTICLE_BITS);
+        }
+        return n;
+    }
+}
@@ -0,0 +1,27 @@
+import org.junit.jupiter.api.Test;
+
+/** A lone particle fired at a WALL edge has to come back the way it went, whatever the edge. */
+class WallTest {
+    private static final int WIDTH = 24, HEIGHT = 16;
+
+    @Test
+    void bouncesBackFromEveryEdge() {
+        fire(12, 8, LGCA.EAST, LGCA.WEST);           // right edge
+        fire(12, 8, LGCA.WEST, LGCA.EAST);           // left edge
+        fire(12, 8, LGCA.NORTHEAST, LGCA.SOUTHWEST); // top edge
+        fire(12, 8, LGCA.SOUTHWEST, LGCA.NORTHEAST); // bottom edge
+    }
+
+    @Test
+    void bouncesBackFromSideEdgesAtAnAngle() {
+        // used to flip between NE and SE next to the right edge forever
+        fire(WIDTH - 6, 7, LGCA.NORTHEAST, LGCA.SOUTHWEST);
+        fire(WIDTH - 6, 7, LGCA.SOUTHEAST, LGCA.NORTHWEST);
+        fire(5, 7, LGCA.NORTHWEST, LGCA.SOUTHEAST);
+        fire(5, 7, LGCA.SOUTHWEST, LGCA.NORTHEAST);
+    }
+
+    private static void fire(int x, int y, byte direction, byte back) {
+        Particles.fire(WIDTH, HEIGHT, null, x, y, direction, back, 2 * (WIDTH + HEIGHT));
+    }
+}